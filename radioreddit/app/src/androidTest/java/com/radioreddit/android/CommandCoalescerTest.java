@@ -0,0 +1,188 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android;
+
+import junit.framework.TestCase;
+
+public class CommandCoalescerTest extends TestCase {
+    private final CommandCoalescer mCommands = new CommandCoalescer();
+    private final FakePlayer mPlayer = new FakePlayer();
+
+    // Goes through the same states as MusicService, counting the sessions
+    //  it would build.
+    private static class FakePlayer implements CommandCoalescer.Player {
+        PlayerState state = PlayerState.IDLE;
+        int stream = 0;
+        int sessions = 0;
+        int streamChanges = 0;
+
+        @Override
+        public PlayerState getPlayerState() {
+            return state;
+        }
+
+        @Override
+        public void changeStream(int streamId) {
+            streamChanges++;
+            stream = streamId;
+            if (state == PlayerState.PREPARING || state == PlayerState.PLAYING) {
+                sessions++;
+            }
+        }
+
+        @Override
+        public void play() {
+            sessions++;
+            state = PlayerState.PREPARING;
+        }
+
+        @Override
+        public void pause() {
+            state = PlayerState.PAUSED;
+        }
+
+        @Override
+        public void resume() {
+            state = PlayerState.PLAYING;
+        }
+
+        @Override
+        public void stop() {
+            state = PlayerState.IDLE;
+        }
+    }
+
+    public void testNothingQueued() {
+        assertNull(mCommands.takeWantedState());
+        assertEquals(-1, mCommands.takeWantedStream());
+    }
+
+    public void testBurstOfPlayToggles() {
+        // An odd number of taps from idle plays once.
+        for (int i = 0; i < 7; i++) {
+            mCommands.togglePlay(PlayerState.IDLE);
+        }
+        assertEquals(PlayerState.PLAYING, mCommands.takeWantedState());
+
+        // An even number nets out to where it started.
+        for (int i = 0; i < 6; i++) {
+            mCommands.togglePlay(PlayerState.IDLE);
+        }
+        assertEquals(PlayerState.IDLE, mCommands.takeWantedState());
+    }
+
+    public void testTogglesWhilePreparingLeaveThePlayer() {
+        mCommands.togglePlay(PlayerState.PREPARING);
+        mCommands.togglePlay(PlayerState.PREPARING);
+        assertEquals(PlayerState.PLAYING, mCommands.takeWantedState());
+    }
+
+    public void testStopWhilePreparing() {
+        mCommands.togglePlay(PlayerState.PREPARING);
+        assertEquals(PlayerState.IDLE, mCommands.takeWantedState());
+    }
+
+    public void testPauseToggles() {
+        mCommands.togglePause(PlayerState.PLAYING);
+        assertEquals(PlayerState.PAUSED, mCommands.takeWantedState());
+        mCommands.togglePause(PlayerState.PAUSED);
+        assertEquals(PlayerState.PLAYING, mCommands.takeWantedState());
+        mCommands.togglePause(PlayerState.PLAYING);
+        mCommands.togglePause(PlayerState.PLAYING);
+        mCommands.togglePause(PlayerState.PLAYING);
+        assertEquals(PlayerState.PAUSED, mCommands.takeWantedState());
+    }
+
+    public void testErrorActsLikeIdle() {
+        mCommands.togglePlay(PlayerState.ERROR);
+        assertEquals(PlayerState.PLAYING, mCommands.takeWantedState());
+    }
+
+    public void testPlayThenPause() {
+        mCommands.togglePlay(PlayerState.IDLE);
+        mCommands.togglePause(PlayerState.IDLE);
+        assertEquals(PlayerState.PAUSED, mCommands.takeWantedState());
+    }
+
+    public void testLastStationWins() {
+        mCommands.changeStream(2);
+        mCommands.changeStream(0);
+        mCommands.changeStream(3);
+        assertNull(mCommands.takeWantedState());
+        assertEquals(3, mCommands.takeWantedStream());
+        assertEquals(-1, mCommands.takeWantedStream());
+    }
+
+    public void testStationAndPlayTogether() {
+        mCommands.changeStream(1);
+        mCommands.togglePlay(PlayerState.IDLE);
+        assertEquals(1, mCommands.takeWantedStream());
+        assertEquals(PlayerState.PLAYING, mCommands.takeWantedState());
+    }
+
+    public void testBurstWhilePreparingBuildsOnePlayer() {
+        mCommands.togglePlay(mPlayer.getPlayerState());
+        mCommands.apply(mPlayer);
+        assertEquals(1, mPlayer.sessions);
+        assertEquals(PlayerState.PREPARING, mPlayer.state);
+
+        // Hammered while the first player is still preparing.
+        for (int i = 0; i < 10; i++) {
+            mCommands.togglePlay(mPlayer.getPlayerState());
+        }
+        mCommands.apply(mPlayer);
+        assertEquals(1, mPlayer.sessions);
+        assertEquals(PlayerState.PREPARING, mPlayer.state);
+
+        // An odd burst stops it, still without building another.
+        for (int i = 0; i < 5; i++) {
+            mCommands.togglePlay(mPlayer.getPlayerState());
+        }
+        mCommands.apply(mPlayer);
+        assertEquals(1, mPlayer.sessions);
+        assertEquals(PlayerState.IDLE, mPlayer.state);
+    }
+
+    public void testBurstFromIdleBuildsOnePlayer() {
+        for (int i = 0; i < 9; i++) {
+            mCommands.togglePlay(mPlayer.getPlayerState());
+            mCommands.changeStream(i % 3);
+        }
+        mCommands.apply(mPlayer);
+        assertEquals(1, mPlayer.streamChanges);
+        assertEquals(2, mPlayer.stream);
+        assertEquals(1, mPlayer.sessions);
+        assertEquals(PlayerState.PREPARING, mPlayer.state);
+    }
+
+    public void testApplyResumesPaused() {
+        mPlayer.state = PlayerState.PAUSED;
+        mCommands.togglePause(mPlayer.getPlayerState());
+        mCommands.apply(mPlayer);
+        assertEquals(PlayerState.PLAYING, mPlayer.state);
+        assertEquals(0, mPlayer.sessions);
+    }
+
+    public void testApplyWithNothingQueued() {
+        mCommands.apply(mPlayer);
+        assertEquals(0, mPlayer.sessions);
+        assertEquals(0, mPlayer.streamChanges);
+        assertEquals(PlayerState.IDLE, mPlayer.state);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class PollSchedulerTest extends TestCase {
+    private static final long HOUR = 3600000;
+
+    private long mNow = 0;
+    private PollScheduler mScheduler;
+
+    @Override
+    protected void setUp() {
+        mScheduler = new PollScheduler(new PollScheduler.Clock() {
+            @Override
+            public long now() {
+                return mNow;
+            }
+        });
+    }
+
+    public void testFixedRateUntilLengthsAreKnown() {
+        assertEquals(PollScheduler.DEFAULT_INTERVAL, mScheduler.getNextDelay());
+        poll();
+        mScheduler.onSongChanged();
+        assertEquals(PollScheduler.DEFAULT_INTERVAL, mScheduler.getNextDelay());
+    }
+
+    public void testWaitsOutTheMiddleOfASong() {
+        learnLength(240000);
+        // Just after a change the next one is minutes away.
+        assertEquals(60000, mScheduler.getNextDelay());
+    }
+
+    public void testBunchesUpNearTheExpectedEnd() {
+        learnLength(240000);
+        mNow += 235000;
+        assertEquals(10000, mScheduler.getNextDelay());
+        mNow += 40000;
+        // Running long, the guess is no use any more.
+        assertEquals(PollScheduler.DEFAULT_INTERVAL, mScheduler.getNextDelay());
+    }
+
+    public void testAnnouncedTitleDatesTheChange() {
+        poll();
+        mScheduler.onTitleAnnounced();
+        mNow += 5000;
+        poll();
+        mScheduler.onSongChanged();
+        mNow += 195000;
+        mScheduler.onTitleAnnounced();
+        mNow += 5000;
+        poll();
+        mScheduler.onSongChanged();
+        assertEquals(200000, mScheduler.getExpectedLength());
+        assertEquals(5000, mScheduler.getAverageDetectionLag());
+    }
+
+    public void testSlowerWhenUnobserved() {
+        learnLength(240000);
+        final long observed = mScheduler.getNextDelay();
+        mScheduler.setObserved(false);
+        assertEquals(observed * 4, mScheduler.getNextDelay());
+    }
+
+    public void testForgetLengths() {
+        learnLength(240000);
+        mScheduler.forgetLengths();
+        assertEquals(0, mScheduler.getExpectedLength());
+        assertEquals(PollScheduler.DEFAULT_INTERVAL, mScheduler.getNextDelay());
+    }
+
+    // Plays eight hours of songs between 2.5 and 5.5 minutes long and
+    //  compares with polling every 15 seconds, which notices a change 7.5
+    //  seconds late on average.
+    public void testFewerPollsThanFixedRate() {
+        final Random random = new Random(12);
+        final long end = 8 * HOUR;
+        long songEnd = 90000;
+        int polls = 0;
+        int changes = 0;
+        long lag = 0;
+        while (mNow < end) {
+            poll();
+            polls++;
+            if (mNow >= songEnd) {
+                mScheduler.onSongChanged();
+                changes++;
+                lag += mNow - songEnd;
+                songEnd += 150000 + random.nextInt(180001);
+            }
+            mNow += mScheduler.getNextDelay();
+        }
+        final long fixedPolls = end / PollScheduler.DEFAULT_INTERVAL;
+        assertTrue(polls + " polls", polls < fixedPolls * 7 / 10);
+        assertTrue(lag / changes + "ms lag", lag / changes <= 8000);
+        assertTrue(mScheduler.getPollsPerHour() < fixedPolls / 8 * 7 / 10);
+    }
+
+    private void poll() {
+        mScheduler.onPoll();
+    }
+
+    // Sees two song changes the given time apart, leaving the clock at the
+    //  second.
+    private void learnLength(long length) {
+        poll();
+        mScheduler.onTitleAnnounced();
+        poll();
+        mScheduler.onSongChanged();
+        mNow += length;
+        mScheduler.onTitleAnnounced();
+        poll();
+        mScheduler.onSongChanged();
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.cookie.DateUtils;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+public class HttpResponseCacheTest extends TestCase {
+    private static final RequestDeadline DEADLINE = new RequestDeadline(5000, 5000, 10000);
+    private static final String ETAG = "\"v1\"";
+    // Small enough that a few of the 200 byte bodies fill it.
+    private static final long MAX_BYTES = 1000;
+    private static final byte[] LRU_BODY = new byte[200];
+
+    static {
+        Arrays.fill(LRU_BODY, (byte) 'x');
+    }
+
+    private StandInHttpServer mServer;
+    private File mDir;
+    private HttpResponseCache mCache;
+    private HttpTransport mTransport;
+
+    @Override
+    protected void setUp() throws IOException {
+        mServer = new StandInHttpServer() {
+            @Override
+            protected boolean respond(String path, Map<String, String> headers,
+                    OutputStream out) throws IOException {
+                final long now = System.currentTimeMillis();
+                if (path.startsWith("/max-age") || path.startsWith("/info")) {
+                    writeResponse(out, 200, "Cache-Control: max-age=60\r\n", bodyFor(path));
+                } else if (path.startsWith("/lru")) {
+                    writeResponse(out, 200, "Cache-Control: max-age=60\r\n", LRU_BODY);
+                } else if (path.startsWith("/expires")) {
+                    writeResponse(out, 200, "Date: " + DateUtils.formatDate(new Date(now))
+                            + "\r\nExpires: " + DateUtils.formatDate(new Date(now + 60000))
+                            + "\r\n", bodyFor(path));
+                } else if (ETAG.equals(headers.get("if-none-match"))) {
+                    writeResponse(out, 304, "ETag: " + ETAG + "\r\n", new byte[0]);
+                } else if (path.startsWith("/swr")) {
+                    writeResponse(out, 200, "Cache-Control: max-age=0, stale-while-revalidate=60"
+                            + "\r\nETag: " + ETAG + "\r\n", bodyFor(path));
+                } else if (path.startsWith("/etag")) {
+                    writeResponse(out, 200, "Cache-Control: max-age=0\r\nETag: " + ETAG + "\r\n",
+                            bodyFor(path));
+                } else {
+                    writeResponse(out, 200, "", bodyFor(path));
+                }
+                return true;
+            }
+        };
+        mDir = File.createTempFile("http", "cache");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdir());
+        mCache = new HttpResponseCache(mDir, MAX_BYTES);
+        mTransport = new HttpTransport();
+        mTransport.setCache(mCache);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        mCache.shutdown();
+        mTransport.closeIdleConnections();
+        mServer.close();
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    public void testMaxAgeFreshHit() throws IOException {
+        assertEquals("/max-age", fetch("/max-age"));
+        assertEquals("/max-age", fetch("/max-age"));
+        assertEquals(1, mServer.getRequestCount());
+        assertCounts(1, 0, 1, 0, 0);
+        assertEquals(0.5f, mCache.getHitRate());
+        assertTrue(mCache.getSize() > 0);
+    }
+
+    public void testExpiresFreshHit() throws IOException {
+        assertEquals("/expires", fetch("/expires"));
+        assertEquals("/expires", fetch("/expires"));
+        assertEquals(1, mServer.getRequestCount());
+        assertCounts(1, 0, 1, 0, 0);
+    }
+
+    public void testStaleWhileRevalidate() throws IOException, InterruptedException {
+        fetch("/swr");
+        // Served from disk at once, the server is only asked afterwards.
+        assertEquals("/swr", fetch("/swr"));
+        assertCounts(1, 1, 1, -1, -1);
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return mCache.getNotModifiedCount() == 1;
+            }
+        });
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(ETAG, mServer.getLastRequestHeaders().get("if-none-match"));
+        assertCounts(1, 1, 1, 1, 1);
+    }
+
+    public void testRevalidatesWithNotModified() throws IOException {
+        fetch("/etag");
+        // A plain 200 for the caller, the 304 stays inside the cache.
+        assertEquals("/etag", fetch("/etag"));
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(ETAG, mServer.getLastRequestHeaders().get("if-none-match"));
+        assertCounts(0, 0, 1, 1, 1);
+    }
+
+    public void testRefuseStale() throws IOException {
+        fetch("/swr");
+        final HttpGet request = new HttpGet(mServer.getUrl("/swr"));
+        HttpResponseCache.refuseStale(request.getParams());
+        assertEquals("/swr", read(request));
+        // Revalidated before answering instead of served stale.
+        assertEquals(2, mServer.getRequestCount());
+        assertCounts(0, 0, 1, 1, 1);
+    }
+
+    public void testTrimsLeastRecentlyUsed() throws IOException {
+        fetch("/lru/a");
+        fetch("/lru/b");
+        fetch("/lru/c");
+        assertEquals(3, mServer.getRequestCount());
+        // Makes b the least recently used.
+        fetch("/lru/a");
+        fetch("/lru/d");
+        assertTrue(mCache.getSize() <= MAX_BYTES);
+        assertEquals(4, mServer.getRequestCount());
+        assertCounts(1, 0, 4, 0, 0);
+
+        fetch("/lru/a");
+        fetch("/lru/d");
+        assertEquals(4, mServer.getRequestCount());
+        fetch("/lru/b");
+        assertEquals(5, mServer.getRequestCount());
+        assertCounts(3, 0, 5, 0, 0);
+    }
+
+    public void testAbortedBodyNotStored() throws IOException {
+        final HttpGet request = new HttpGet(mServer.getUrl("/max-age"));
+        final HttpResponse response = mTransport.execute(request, DEADLINE);
+        drain(response.getEntity().getContent());
+        // As a caller does with a body that didn't parse.
+        request.abort();
+        HttpTransport.release(response);
+        assertEquals(0, mCache.getSize());
+        assertEquals(0, mDir.listFiles().length);
+
+        fetch("/max-age");
+        assertEquals(2, mServer.getRequestCount());
+        assertCounts(0, 0, 2, 0, 0);
+    }
+
+    public void testEvictByQuery() throws IOException, InterruptedException {
+        final String base = mServer.getUrl("/info");
+        fetch("/info?id=t3_a,t3_b");
+        fetch("/info?id=t3_c");
+        assertEquals(2, mDir.listFiles().length);
+
+        mCache.evictByQuery(base, "id", "t3_b");
+        // Gone for the next lookup, even before the file is.
+        fetch("/info?id=t3_a,t3_b");
+        fetch("/info?id=t3_c");
+        assertEquals(3, mServer.getRequestCount());
+        assertCounts(1, 0, 3, 0, 0);
+
+        mCache.evictByQuery(base, "id", "t3_c");
+        waitFor(new Condition() {
+            @Override
+            public boolean met() {
+                return mDir.listFiles().length == 1;
+            }
+        });
+    }
+
+    private interface Condition {
+        boolean met();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        final long giveUp = System.currentTimeMillis() + 5000;
+        while (!condition.met()) {
+            assertTrue(System.currentTimeMillis() < giveUp);
+            Thread.sleep(10);
+        }
+    }
+
+    // A count of -1 isn't checked.
+    private void assertCounts(long hits, long staleHits, long misses, long revalidations,
+            long notModified) {
+        assertEquals(hits, mCache.getHitCount());
+        assertEquals(staleHits, mCache.getStaleHitCount());
+        assertEquals(misses, mCache.getMissCount());
+        if (revalidations >= 0) {
+            assertEquals(revalidations, mCache.getRevalidateCount());
+        }
+        if (notModified >= 0) {
+            assertEquals(notModified, mCache.getNotModifiedCount());
+        }
+    }
+
+    private String fetch(String path) throws IOException {
+        return read(new HttpGet(mServer.getUrl(path)));
+    }
+
+    private String read(HttpGet request) throws IOException {
+        final HttpResponse response = mTransport.execute(request, DEADLINE);
+        try {
+            assertEquals(200, response.getStatusLine().getStatusCode());
+            return new String(drain(response.getEntity().getContent()), "UTF-8");
+        } finally {
+            HttpTransport.release(response);
+        }
+    }
+
+    private static byte[] bodyFor(String path) throws IOException {
+        final int query = path.indexOf('?');
+        return (query < 0 ? path : path.substring(0, query)).getBytes("UTF-8");
+    }
+
+    private static byte[] drain(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+public class HttpTransportTest extends TestCase {
+    private static final String TAG = "HttpTransportTest";
+    private static final RequestDeadline DEADLINE = new RequestDeadline(5000, 5000, 10000);
+    private static final byte[] BODY = new byte[16 * 1024];
+
+    static {
+        Arrays.fill(BODY, (byte) 'x');
+    }
+
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void setUp() throws IOException {
+        mServer = new StandInHttpServer() {
+            @Override
+            protected boolean respond(String path, Map<String, String> headers,
+                    OutputStream out) throws IOException {
+                if (path.startsWith("/close")) {
+                    writeResponse(out, 200, "Connection: close\r\n", BODY);
+                    return false;
+                }
+                if (path.equals("/api/status.json")) {
+                    writeResponse(out, 200, "Content-Type: application/json\r\n",
+                            StationStatusParserTest.fixtureBytes("status_main.json"), headers);
+                    return true;
+                }
+                writeResponse(out, 200, "", BODY);
+                return true;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    public void testSameInstanceEverywhere() {
+        assertSame(HttpTransport.get(), HttpTransport.get());
+    }
+
+    public void testReusesConnection() throws IOException {
+        // A transport of its own so other tests don't skew the numbers.
+        final HttpTransport transport = new HttpTransport();
+        final int requests = 50;
+        for (int i = 0; i < requests; i++) {
+            assertEquals(BODY.length, readAll(transport, "/status" + i));
+        }
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(requests, transport.getRequestCount());
+        assertEquals(1, transport.getConnectionsOpened());
+
+        final float reuseRate = transport.getReuseRate();
+        final long p50 = transport.getLatencyPercentile(50);
+        final long p99 = transport.getLatencyPercentile(99);
+        Log.i(TAG, "Reuse rate " + reuseRate + ", p50 " + p50 + "ms, p99 " + p99 + "ms");
+        assertTrue(reuseRate >= (float) (requests - 1) / requests);
+        assertTrue(p50 >= 0);
+        assertTrue(p50 <= p99);
+        // Headers from a local server never take anywhere near the deadline.
+        assertTrue(p99 < DEADLINE.readMillis);
+    }
+
+    public void testLatencyEmptyWithoutRequests() {
+        final HttpTransport transport = new HttpTransport();
+        assertEquals(0f, transport.getReuseRate());
+        assertEquals(0, transport.getLatencyPercentile(50));
+    }
+
+    public void testInflatesGzip() throws IOException {
+        final HttpTransport transport = HttpTransport.get();
+        final String endpoint = "127.0.0.1/api/status.json";
+        final long wireBefore = transport.getWireBytes(endpoint);
+        final long decodedBefore = transport.getDecodedBytes(endpoint);
+        final StreamingResponse response = InternetCommunication.retrieve(
+                mServer.getUrl("/api/status.json"));
+        final StationStatus status;
+        try {
+            // Read to the end so every byte is counted.
+            status = StationStatusParser.parse(
+                    new InputStreamReader(response.getBody(), "UTF-8"), 100);
+            while (response.getBody().read() != -1) {
+                // Past the end of the document.
+            }
+        } finally {
+            response.close();
+        }
+        assertEquals("gzip", mServer.getLastRequestHeaders().get("accept-encoding"));
+        assertEquals("main", status.playlist);
+        assertEquals(4, status.songs.song.size());
+
+        final long wire = transport.getWireBytes(endpoint) - wireBefore;
+        final long decoded = transport.getDecodedBytes(endpoint) - decodedBefore;
+        Log.i(TAG, "status.json took " + wire + " bytes for " + decoded);
+        assertEquals(StationStatusParserTest.fixtureBytes("status_main.json").length, decoded);
+        assertTrue(wire > 0);
+        assertTrue(wire < decoded);
+        assertTrue(transport.getEndpoints().contains(endpoint));
+    }
+
+    public void testReleaseReturnsConnection() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            final HttpResponse response = HttpTransport.get().execute(
+                    new HttpGet(mServer.getUrl("/partial")), DEADLINE);
+            // Only a little of the body before giving up on it.
+            response.getEntity().getContent().read(new byte[100]);
+            HttpTransport.release(response);
+        }
+        assertEquals(1, mServer.getConnectionCount());
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testServerClosingConnection() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BODY.length, readAll("/close"));
+        }
+        assertEquals(3, mServer.getConnectionCount());
+    }
+
+    public void testClosedIdleConnectionsReopen() throws IOException {
+        readAll("/status");
+        HttpTransport.get().closeIdleConnections();
+        assertEquals(BODY.length, readAll("/status"));
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    private int readAll(String path) throws IOException {
+        return readAll(HttpTransport.get(), path);
+    }
+
+    private int readAll(HttpTransport transport, String path) throws IOException {
+        final HttpResponse response = transport.execute(
+                new HttpGet(mServer.getUrl(path)), DEADLINE);
+        try {
+            final InputStream in = response.getEntity().getContent();
+            final byte[] buffer = new byte[4096];
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+            }
+            return total;
+        } finally {
+            HttpTransport.release(response);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs NowPlayingChannel against StandInEventServer.
+ */
+public class NowPlayingChannelTest extends TestCase {
+    private static final long TIMEOUT = 5000;
+    private static final long RETRY_DELAY = 100;
+
+    private StandInEventServer mServer;
+    private HandlerThread mThread;
+    private NowPlayingChannel mChannel;
+    // What the listener heard, in order, as "connected", "disconnected" or
+    //  the title of the current song.
+    private final LinkedBlockingQueue<String> mHeard = new LinkedBlockingQueue<String>();
+
+    private final NowPlayingChannel.Listener mListener = new NowPlayingChannel.Listener() {
+        @Override
+        public void onConnected() {
+            mHeard.add("connected");
+        }
+
+        @Override
+        public void onNowPlaying(StationStatus status) {
+            mHeard.add(status.getCurrentSong("-").title);
+        }
+
+        @Override
+        public void onDisconnected() {
+            mHeard.add("disconnected");
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        mServer = new StandInEventServer(RETRY_DELAY);
+        // The channel calls back on the thread that made it, which needs a
+        //  looper.
+        mThread = new HandlerThread("NowPlayingChannelTest");
+        mThread.start();
+        final CountDownLatch started = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                mChannel = new NowPlayingChannel(mServer.getUrl(), mListener);
+                mChannel.start();
+                started.countDown();
+            }
+        });
+        assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mChannel.stop();
+        mThread.quit();
+        mServer.close();
+    }
+
+    public void testDeliversNowPlaying() throws Exception {
+        assertEquals("", mServer.awaitConnection(TIMEOUT));
+        assertEquals("connected", next());
+        mServer.sendComment();
+        mServer.sendNowPlaying("1", status("First"));
+        mServer.sendNowPlaying("2", status("Second"));
+        assertEquals("First", next());
+        assertEquals("Second", next());
+    }
+
+    public void testSkipsBadEvents() throws Exception {
+        mServer.awaitConnection(TIMEOUT);
+        assertEquals("connected", next());
+        mServer.sendNowPlaying("1", "not json");
+        mServer.sendNowPlaying("2", status("Valid"));
+        assertEquals("Valid", next());
+    }
+
+    public void testResumesFromLastEventId() throws Exception {
+        mServer.awaitConnection(TIMEOUT);
+        assertEquals("connected", next());
+        mServer.sendNowPlaying("41", status("Before"));
+        assertEquals("Before", next());
+        mServer.disconnect();
+        assertEquals("disconnected", next());
+        assertEquals("41", mServer.awaitConnection(TIMEOUT));
+        assertEquals("connected", next());
+        mServer.sendNowPlaying("42", status("After"));
+        assertEquals("After", next());
+    }
+
+    public void testSilentAfterStop() throws Exception {
+        mServer.awaitConnection(TIMEOUT);
+        assertEquals("connected", next());
+        mChannel.stop();
+        assertTrue(mServer.isClientGone(TIMEOUT));
+        assertNull(mServer.awaitConnection(RETRY_DELAY * 5));
+        assertNull(mHeard.poll(RETRY_DELAY * 5, TimeUnit.MILLISECONDS));
+    }
+
+    private String next() throws InterruptedException {
+        final String heard = mHeard.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertNotNull("Listener heard nothing", heard);
+        return heard;
+    }
+
+    private static String status(String title) {
+        return "{\"online\":\"TRUE\",\"listeners\":\"7\",\"playlist\":\"main\","
+                + "\"songs\":{\"song\":[{\"title\":\"" + title + "\",\"artist\":\"A\"}]}}";
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.Debug;
+
+/**
+ * Runs one way of parsing a document over and over, timing it and counting
+ * what it allocates on the calling thread. The counts are only filled in on
+ * builds where allocation counting works, debuggable ones.
+ */
+abstract class ParseTimer {
+    private final String mName;
+    private long mNanosPerRun;
+    private long mBytesPerRun;
+
+    ParseTimer(String name) {
+        mName = name;
+    }
+
+    abstract void parse() throws Exception;
+
+    ParseTimer run(int warmup, int runs) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            parse();
+        }
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        final long start = System.nanoTime();
+        try {
+            for (int i = 0; i < runs; i++) {
+                parse();
+            }
+        } finally {
+            mNanosPerRun = (System.nanoTime() - start) / runs;
+            Debug.stopAllocCounting();
+        }
+        mBytesPerRun = Debug.getThreadAllocSize() / runs;
+        return this;
+    }
+
+    long getNanosPerRun() {
+        return mNanosPerRun;
+    }
+
+    long getBytesPerRun() {
+        return mBytesPerRun;
+    }
+
+    @Override
+    public String toString() {
+        return mName + " " + mNanosPerRun / 1000 + "us and " + mBytesPerRun / 1024 + "KiB";
+    }
+}
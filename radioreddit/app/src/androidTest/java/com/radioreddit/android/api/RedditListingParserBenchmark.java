@@ -0,0 +1,110 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times RedditListingParser against reading the whole body into a String
+ * and a JSONObject, as song info was read before, and counts what each
+ * allocates. Both a prefetch batch and the single post of a song lookup are
+ * measured. The numbers are only logged.
+ */
+public class RedditListingParserBenchmark extends TestCase {
+    private static final String TAG = "RedditListingParserBenchmark";
+    private static final int POSTS = 25;
+    private static final int WARMUP = 200;
+    private static final int RUNS = 1000;
+
+    public void testStreamingAgainstJsonObject() throws Exception {
+        final byte[] document = largeListing();
+        compare(document, POSTS);
+        compare(document, 1);
+    }
+
+    private static void compare(final byte[] document, final int maxPosts) throws Exception {
+        final ParseTimer tree = new ParseTimer("JSONObject") {
+            @Override
+            void parse() throws IOException, JSONException {
+                readTree(document, maxPosts);
+            }
+        }.run(WARMUP, RUNS);
+        final ParseTimer streaming = new ParseTimer("streaming") {
+            @Override
+            void parse() throws IOException {
+                RedditListingParser.parse(new InputStreamReader(
+                        new ByteArrayInputStream(document), "UTF-8"), maxPosts);
+            }
+        }.run(WARMUP, RUNS);
+        Log.i(TAG, "Per " + maxPosts + " of " + POSTS + " posts: " + tree + ", " + streaming);
+
+        assertEquals(readTree(document, maxPosts), RedditListingParser.parse(new InputStreamReader(
+                new ByteArrayInputStream(document), "UTF-8"), maxPosts).posts.size());
+    }
+
+    // The old way, the whole body as a String and then as a tree. Returns
+    //  how many posts were read.
+    private static int readTree(byte[] document, int maxPosts)
+            throws IOException, JSONException {
+        final JSONObject data = new JSONObject(
+                EntityUtils.toString(new ByteArrayEntity(document))).optJSONObject("data");
+        final JSONArray children = data.optJSONArray("children");
+        final List<RedditListingParser.Post> posts = new ArrayList<>();
+        for (int i = 0; i < children.length() && posts.size() < maxPosts; i++) {
+            final JSONObject child = children.optJSONObject(i);
+            final JSONObject post = child == null ? null : child.optJSONObject("data");
+            if (post == null) {
+                continue;
+            }
+            final RedditListingParser.Post read = new RedditListingParser.Post();
+            read.fullname = child.optString("kind") + "_" + post.optString("id");
+            read.score = post.optInt("score");
+            read.likes = post.isNull("likes") ? null : post.optBoolean("likes");
+            read.saved = post.optBoolean("saved");
+            posts.add(read);
+        }
+        return posts.size();
+    }
+
+    // The fixture with its posts repeated until there are POSTS of them.
+    private static byte[] largeListing() throws IOException, JSONException {
+        final JSONObject listing = new JSONObject(new String(
+                StationStatusParserTest.fixtureBytes("info.json"), "UTF-8"));
+        final JSONArray children = listing.getJSONObject("data").getJSONArray("children");
+        final int fixturePosts = children.length();
+        for (int i = fixturePosts; i < POSTS; i++) {
+            children.put(children.get(i % fixturePosts));
+        }
+        return listing.toString().getBytes("UTF-8");
+    }
+}
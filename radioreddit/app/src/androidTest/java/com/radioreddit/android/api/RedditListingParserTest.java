@@ -0,0 +1,79 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class RedditListingParserTest extends TestCase {
+    public void testParsesFixture() throws IOException {
+        final RedditListingParser listing = RedditListingParser.parse(
+                StationStatusParserTest.fixture("info.json"), 10);
+        // After the children in the document, so they must all be read.
+        assertEquals("w2sbk2nudu8ea6a67d6c4d5b9b3c1c2e7e4de47c1dc8c01ab3", listing.modhash);
+        assertEquals(3, listing.posts.size());
+
+        final RedditListingParser.Post upvoted = listing.posts.get(0);
+        assertEquals("t3_1a2b3c", upvoted.fullname);
+        assertEquals(87, upvoted.score);
+        assertEquals(Boolean.TRUE, upvoted.likes);
+        assertFalse(upvoted.saved);
+
+        final RedditListingParser.Post saved = listing.posts.get(1);
+        // No name in the data, made up from the kind and id.
+        assertEquals("t3_4d5e6f", saved.fullname);
+        assertNull(saved.likes);
+        assertTrue(saved.saved);
+
+        assertEquals(Boolean.FALSE, listing.posts.get(2).likes);
+    }
+
+    public void testStopsAtMaxPosts() throws IOException {
+        final RedditListingParser listing = RedditListingParser.parse(
+                StationStatusParserTest.fixture("info.json"), 1);
+        assertEquals(1, listing.posts.size());
+        assertEquals("t3_1a2b3c", listing.posts.get(0).fullname);
+        assertNotNull(listing.modhash);
+    }
+
+    public void testSkipsChildrenWithoutId() throws IOException {
+        final RedditListingParser listing = RedditListingParser.parse(new StringReader(
+                "{\"data\":{\"modhash\":\"\",\"children\":[{\"kind\":\"t3\",\"data\":{}},"
+                + "\"junk\",{\"kind\":\"t3\",\"data\":{\"id\":\"x\",\"score\":1}}]}}"), 10);
+        assertEquals(1, listing.posts.size());
+        assertEquals("t3_x", listing.posts.get(0).fullname);
+    }
+
+    public void testMalformed() {
+        assertMalformed("{\"data\":{\"children\":[{\"data\":{\"score\":\"lots\"}}]}}");
+        assertMalformed("{\"data\":{\"children\":[{\"data\":{\"saved\":1}}]}}");
+        assertMalformed("{\"data\":{\"children\":[");
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            RedditListingParser.parse(new StringReader(json), 10);
+            fail("Parsed " + json);
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.Map;
+
+/**
+ * Checks that HttpTransport turns each kind of overrun into a
+ * RequestTimeoutException naming the limit that was hit.
+ */
+public class RequestDeadlineTest extends TestCase {
+    private static final int BODY_LENGTH = 1000;
+
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void setUp() throws IOException {
+        mServer = new StandInHttpServer() {
+            @Override
+            protected boolean respond(String path, Map<String, String> headers,
+                    OutputStream out) throws IOException, InterruptedException {
+                if (path.equals("/silent")) {
+                    Thread.sleep(60000);
+                    return false;
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n")
+                        .getBytes("US-ASCII"));
+                out.flush();
+                for (int i = 0; i < BODY_LENGTH; i++) {
+                    out.write('x');
+                    out.flush();
+                    if (path.equals("/stall") && i == BODY_LENGTH / 2) {
+                        Thread.sleep(60000);
+                    } else if (path.equals("/trickle")) {
+                        // Every byte within the read limit, the whole body 50s.
+                        Thread.sleep(50);
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    public void testReadLimitBeforeHeaders() {
+        assertLimit("/silent", new RequestDeadline(1000, 300, 5000), RequestTimeoutException.READ);
+    }
+
+    public void testReadLimitInBody() {
+        assertLimit("/stall", new RequestDeadline(1000, 300, 5000), RequestTimeoutException.READ);
+    }
+
+    public void testTotalLimitBeforeHeaders() {
+        assertLimit("/silent", new RequestDeadline(1000, 5000, 300),
+                RequestTimeoutException.TOTAL);
+    }
+
+    public void testTotalLimitInBody() {
+        assertLimit("/trickle", new RequestDeadline(1000, 1000, 500),
+                RequestTimeoutException.TOTAL);
+    }
+
+    public void testWithinLimits() throws IOException {
+        assertEquals(BODY_LENGTH, readAll("/fast", new RequestDeadline(1000, 1000, 5000)));
+    }
+
+    public void testOtherFailuresAreNotTimeouts() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        final int port = socket.getLocalPort();
+        socket.close();
+        final long[] before = timeoutCounts();
+        try {
+            HttpTransport.get().execute(new HttpGet("http://127.0.0.1:" + port + "/"),
+                    RequestDeadline.STATUS);
+            fail("Connected to a closed port");
+        } catch (RequestTimeoutException e) {
+            fail("Refused connection reported as " + e.getMessage());
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertCounted(before, -1);
+    }
+
+    // The caller can give up on a request from another thread at any time,
+    //  which is a plain failure rather than a timeout.
+    public void testAbortFromCaller() throws InterruptedException {
+        final HttpGet request = new HttpGet(mServer.getUrl("/silent"));
+        final Thread aborter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                request.abort();
+            }
+        });
+        final long[] before = timeoutCounts();
+        final long start = System.currentTimeMillis();
+        aborter.start();
+        try {
+            HttpTransport.release(HttpTransport.get().execute(request,
+                    new RequestDeadline(5000, 10000, 20000)));
+            fail("Finished despite being aborted");
+        } catch (RequestTimeoutException e) {
+            fail("Abort reported as " + e.getMessage());
+        } catch (IOException e) {
+            // Expected.
+        }
+        aborter.join();
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertCounted(before, -1);
+    }
+
+    private void assertLimit(String path, RequestDeadline deadline, int limit) {
+        final long[] before = timeoutCounts();
+        final long start = System.currentTimeMillis();
+        try {
+            readAll(path, deadline);
+            fail(path + " finished within its limits");
+        } catch (RequestTimeoutException e) {
+            assertEquals(e.getMessage(), limit, e.getLimit());
+        } catch (IOException e) {
+            fail(path + " failed without a timeout: " + e);
+        }
+        // Caught by the limit, not by the server giving up a minute later.
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertCounted(before, limit);
+    }
+
+    private int readAll(String path, RequestDeadline deadline) throws IOException {
+        final HttpResponse response = HttpTransport.get().execute(
+                new HttpGet(mServer.getUrl(path)), deadline);
+        try {
+            final InputStream in = response.getEntity().getContent();
+            int total = 0;
+            while (in.read() != -1) {
+                total++;
+            }
+            return total;
+        } finally {
+            HttpTransport.release(response);
+        }
+    }
+
+    private static long[] timeoutCounts() {
+        final long[] counts = new long[3];
+        for (int limit = 0; limit < counts.length; limit++) {
+            counts[limit] = HttpTransport.get().getTimeoutCount(limit);
+        }
+        return counts;
+    }
+
+    // Checks that only the given limit, or none for -1, was counted once.
+    private static void assertCounted(long[] before, int limit) {
+        final long[] after = timeoutCounts();
+        for (int i = 0; i < after.length; i++) {
+            assertEquals("Limit " + i, i == limit ? 1 : 0, after[i] - before[i]);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for the server's event stream, which isn't deployed yet. Serves
+ * server-sent events on a local port to one connection at a time, the way
+ * NowPlayingChannel expects to find them at push_url.
+ */
+public class StandInEventServer implements Closeable {
+    private static final String HEADERS = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "\r\n";
+
+    private final ServerSocket mServerSocket;
+    private final long mRetryDelay;
+    // Last-Event-ID of each connection as it arrives, "" when none was sent.
+    private final LinkedBlockingQueue<String> mConnections = new LinkedBlockingQueue<String>();
+    private Socket mSocket;
+    private volatile boolean mClosed = false;
+
+    public StandInEventServer(long retryDelay) throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mRetryDelay = retryDelay;
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StandInEventServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/api/events";
+    }
+
+    // Waits for the next connection and returns the Last-Event-ID it sent,
+    //  "" for none, or null if none came in time.
+    public String awaitConnection(long timeoutMillis) throws InterruptedException {
+        return mConnections.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void sendNowPlaying(String id, String statusJson) throws IOException {
+        send("event: now_playing\nid: " + id + "\ndata: " + statusJson + "\n\n");
+    }
+
+    public void sendComment() throws IOException {
+        send(": keep-alive\n\n");
+    }
+
+    // Drops the current connection the way a restarting server would.
+    public synchronized void disconnect() throws IOException {
+        if (mSocket != null) {
+            mSocket.close();
+            mSocket = null;
+        }
+    }
+
+    // True once the client has closed the current connection.
+    public boolean isClientGone(long timeoutMillis) throws IOException {
+        final Socket socket;
+        synchronized (this) {
+            socket = mSocket;
+        }
+        if (socket == null) {
+            return true;
+        }
+        socket.setSoTimeout((int) timeoutMillis);
+        try {
+            return socket.getInputStream().read() == -1;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // Reset by the client.
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        disconnect();
+        mServerSocket.close();
+    }
+
+    private synchronized void send(String text) throws IOException {
+        if (mSocket == null) {
+            throw new IOException("No client connected");
+        }
+        final OutputStream out = mSocket.getOutputStream();
+        out.write(text.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                String lastEventId = "";
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    if (line.regionMatches(true, 0, "Last-Event-ID:", 0, 14)) {
+                        lastEventId = line.substring(14).trim();
+                    }
+                }
+                final OutputStream out = socket.getOutputStream();
+                out.write((HEADERS + "retry: " + mRetryDelay + "\n\n").getBytes("UTF-8"));
+                out.flush();
+                synchronized (this) {
+                    disconnect();
+                    mSocket = socket;
+                }
+                mConnections.add(lastEventId);
+            } catch (IOException e) {
+                // Closed, or a client that went away mid-request.
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP/1.1 server for driving HttpTransport without the network.
+ * Connections are kept alive between requests and each one is counted, so
+ * tests can tell a reused connection from a new one.
+ */
+public abstract class StandInHttpServer implements Closeable {
+    private final ServerSocket mServerSocket;
+    private final List<Socket> mSockets = new ArrayList<Socket>();
+    private int mConnections = 0;
+    private int mMostOpen = 0;
+    private int mRequests = 0;
+    private Map<String, String> mLastHeaders;
+    private volatile boolean mClosed = false;
+
+    public StandInHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StandInHttpServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Writes the whole response, status line included, to a request for the
+    //  path. Returns false to close the connection afterwards.
+    protected abstract boolean respond(String path, Map<String, String> headers,
+            OutputStream out) throws IOException, InterruptedException;
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public synchronized int getConnectionCount() {
+        return mConnections;
+    }
+
+    // Connections not yet closed by either side.
+    public synchronized int getOpenConnectionCount() {
+        return mSockets.size();
+    }
+
+    // The most connections that were open at once.
+    public synchronized int getMostOpenConnections() {
+        return mMostOpen;
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequests;
+    }
+
+    // Headers of the latest request, names in lower case.
+    public synchronized Map<String, String> getLastRequestHeaders() {
+        return mLastHeaders;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        mServerSocket.close();
+        synchronized (this) {
+            for (Socket socket : mSockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mClosed) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                // Headers and body go out in separate writes.
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                // Only slower.
+            }
+            synchronized (this) {
+                mConnections++;
+                mSockets.add(socket);
+                mMostOpen = Math.max(mMostOpen, mSockets.size());
+            }
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "StandInHttpServer connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            final OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                final Map<String, String> headers = new HashMap<String, String>();
+                String line;
+                while ((line = in.readLine()) != null && line.length() > 0) {
+                    final int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                synchronized (this) {
+                    mRequests++;
+                    mLastHeaders = headers;
+                }
+                final String[] parts = requestLine.split(" ");
+                final boolean keepAlive = respond(parts.length > 1 ? parts[1] : "/", headers, out);
+                out.flush();
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } catch (InterruptedException e) {
+            // Closing down.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+            synchronized (this) {
+                mSockets.remove(socket);
+            }
+        }
+    }
+
+    // Like writeResponse() but gzips the body when the request accepts it,
+    //  as the real servers do.
+    public static void writeResponse(OutputStream out, int statusCode, String extraHeaders,
+            byte[] body, Map<String, String> requestHeaders) throws IOException {
+        final String accepted = requestHeaders.get("accept-encoding");
+        if (accepted == null || !accepted.contains("gzip")) {
+            writeResponse(out, statusCode, extraHeaders, body);
+            return;
+        }
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(body);
+        gzip.close();
+        writeResponse(out, statusCode, extraHeaders + "Content-Encoding: gzip\r\n",
+                gzipped.toByteArray());
+    }
+
+    // A complete response with a Content-Length, as most servers send.
+    public static void writeResponse(OutputStream out, int statusCode, String extraHeaders,
+            byte[] body) throws IOException {
+        out.write(("HTTP/1.1 " + statusCode + " Status\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + extraHeaders
+                + "\r\n").getBytes("US-ASCII"));
+        out.write(body);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Times StationStatusParser against the Gson reflection it replaced, on a
+ * status document with 200 songs, and counts what each allocates. The
+ * numbers are only logged, timing on a shared device is too noisy to assert
+ * on.
+ */
+public class StationStatusParserBenchmark extends TestCase {
+    private static final String TAG = "StationStatusParserBenchmark";
+    private static final int SONGS = 200;
+    private static final int WARMUP = 200;
+    private static final int RUNS = 1000;
+
+    public void testStreamingAgainstGson() throws Exception {
+        final String document = largeStatus();
+        final Gson gson = new Gson();
+        final ParseTimer reflection = new ParseTimer("Gson") {
+            @Override
+            void parse() {
+                gson.fromJson(new StringReader(document), StationStatus.class);
+            }
+        }.run(WARMUP, RUNS);
+        final ParseTimer streaming = new ParseTimer("streaming") {
+            @Override
+            void parse() throws IOException {
+                StationStatusParser.parse(new StringReader(document),
+                        1 + GetStationStatus.LOOKAHEAD);
+            }
+        }.run(WARMUP, RUNS);
+        Log.i(TAG, "Per document: " + reflection + ", " + streaming);
+
+        final StationStatus status = StationStatusParser.parse(
+                new StringReader(document), 1 + GetStationStatus.LOOKAHEAD);
+        assertEquals(1 + GetStationStatus.LOOKAHEAD, status.songs.song.size());
+    }
+
+    // The fixture with its songs repeated until there are SONGS of them.
+    private static String largeStatus() throws IOException {
+        final StationStatus status = new Gson().fromJson(
+                StationStatusParserTest.fixture("status_main.json"), StationStatus.class);
+        final int fixtureSongs = status.songs.song.size();
+        for (int i = fixtureSongs; i < SONGS; i++) {
+            status.songs.song.add(status.songs.song.get(i % fixtureSongs));
+        }
+        return new Gson().toJson(status);
+    }
+}
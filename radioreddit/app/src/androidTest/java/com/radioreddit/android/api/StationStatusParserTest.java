@@ -0,0 +1,161 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import com.google.gson.Gson;
+import com.radioreddit.android.MusicService;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+public class StationStatusParserTest extends TestCase {
+    // The playlist of each station in MusicService, and how many songs its
+    //  fixture has.
+    private static final String[] STATIONS = {
+        "main", "electronic", "rock", "metal", "indie", "hiphop", "random", "talk",
+    };
+    private static final int[] STATION_SONGS = {4, 3, 7, 2, 1, 3, 4, 0};
+
+    public void testParsesFixture() throws IOException {
+        final StationStatus status = StationStatusParser.parse(fixture("status_main.json"), 6);
+        assertEquals("main", status.playlist);
+        // A number in the document, kept as its text.
+        assertEquals("142", status.listeners);
+        assertEquals(4, status.songs.song.size());
+
+        final SongInfo first = status.songs.song.get(0);
+        assertEquals("Don't Look Back", first.title);
+        assertEquals("The Quiet Hours", first.artist);
+        assertEquals("quiethours", first.redditor);
+        assertEquals("Indie Rock", first.genre);
+        assertEquals("http://www.reddit.com/r/radioreddit/comments/1a2b3c/"
+                + "indie_rock_the_quiet_hours_dont_look_back/", first.reddit_url);
+
+        final SongInfo second = status.songs.song.get(1);
+        assertEquals("Café \"Lumière\"", second.title);
+        assertEquals("Anna Sørensen", second.artist);
+        assertNull(second.genre);
+        assertNull(status.songs.song.get(2).reddit_url);
+    }
+
+    public void testAgreesWithGson() throws IOException {
+        assertAgreesWithGson("status_main.json");
+    }
+
+    // Every station's status, each shaped a little differently.
+    public void testEveryStation() throws IOException {
+        assertEquals(MusicService.STREAM_NAMES.length, STATIONS.length);
+        for (int i = 0; i < STATIONS.length; i++) {
+            final String name = "status_" + STATIONS[i] + ".json";
+            final int maxSongs = 1 + GetStationStatus.LOOKAHEAD;
+            final StationStatus status = StationStatusParser.parse(fixture(name), maxSongs);
+            assertEquals(name, STATIONS[i], status.playlist);
+            assertNotNull(name, status.listeners);
+            if (STATION_SONGS[i] == 0) {
+                assertEquals(name, "-", status.getCurrentSong("-").title);
+                continue;
+            }
+            assertEquals(name, Math.min(STATION_SONGS[i], maxSongs), status.songs.song.size());
+            for (SongInfo song : status.songs.song) {
+                assertNotNull(name, song.title);
+                assertNotNull(name, song.artist);
+            }
+            assertAgreesWithGson(name);
+        }
+    }
+
+    private static void assertAgreesWithGson(String name) throws IOException {
+        final StationStatus streamed = StationStatusParser.parse(fixture(name), 6);
+        final StationStatus reflected = new Gson().fromJson(fixture(name), StationStatus.class);
+        assertEquals(reflected.playlist, streamed.playlist);
+        assertEquals(reflected.listeners, streamed.listeners);
+        assertEquals(Math.min(6, reflected.songs.song.size()), streamed.songs.song.size());
+        for (int i = 0; i < streamed.songs.song.size(); i++) {
+            final SongInfo expected = reflected.songs.song.get(i);
+            final SongInfo actual = streamed.songs.song.get(i);
+            assertEquals(expected.title, actual.title);
+            assertEquals(expected.artist, actual.artist);
+            assertEquals(expected.redditor, actual.redditor);
+            assertEquals(expected.genre, actual.genre);
+            assertEquals(expected.reddit_url, actual.reddit_url);
+        }
+    }
+
+    public void testStopsAtMaxSongs() throws IOException {
+        final StationStatus status = StationStatusParser.parse(fixture("status_main.json"), 1);
+        assertEquals(1, status.songs.song.size());
+        assertEquals("Don't Look Back", status.getCurrentSong("-").title);
+        assertTrue(status.getUpcomingRedditUrls(5).isEmpty());
+    }
+
+    public void testUpcomingSkipsSongsWithoutUrl() throws IOException {
+        final StationStatus status = StationStatusParser.parse(fixture("status_main.json"), 6);
+        assertEquals(2, status.getUpcomingRedditUrls(5).size());
+    }
+
+    public void testWithoutSongs() throws IOException {
+        final StationStatus status = StationStatusParser.parse(
+                new StringReader("{\"playlist\":\"talk\",\"listeners\":\"3\",\"songs\":\"\"}"), 6);
+        assertEquals("talk", status.playlist);
+        assertNull(status.songs);
+        assertEquals("-", status.getCurrentSong("-").title);
+    }
+
+    public void testMalformed() {
+        assertMalformed("[]");
+        assertMalformed("{\"listeners\":{}}");
+        assertMalformed("{\"songs\":{\"song\":[{\"title\":\"Cut off");
+        assertMalformed("");
+    }
+
+    private static void assertMalformed(String json) {
+        try {
+            StationStatusParser.parse(new StringReader(json), 6);
+            fail("Parsed " + json);
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    static byte[] fixtureBytes(String name) throws IOException {
+        final InputStream in = StationStatusParserTest.class.getResourceAsStream(name);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static Reader fixture(String name) throws IOException {
+        return new InputStreamReader(
+                StationStatusParserTest.class.getResourceAsStream(name), "UTF-8");
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import org.apache.http.client.methods.HttpGet;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Map;
+
+public class StreamingResponseTest extends TestCase {
+    private static final String TAG = "StreamingResponseTest";
+    private static final String ETAG = "\"v1\"";
+    // Enough for a connection being replaced while another closes.
+    private static final int SOCKET_SLACK = 4;
+    private static final int FD_SLACK = 4;
+
+    private byte[] mStatus;
+    private StandInHttpServer mServer;
+
+    @Override
+    protected void setUp() throws IOException {
+        mStatus = StationStatusParserTest.fixtureBytes("status_main.json");
+        mServer = new StandInHttpServer() {
+            @Override
+            protected boolean respond(String path, Map<String, String> headers,
+                    OutputStream out) throws IOException {
+                if (path.equals("/error")) {
+                    writeResponse(out, 500, "", "Internal error".getBytes("US-ASCII"));
+                } else if (ETAG.equals(headers.get("if-none-match"))) {
+                    out.write(("HTTP/1.1 304 Not Modified\r\nETag: " + ETAG + "\r\n\r\n")
+                            .getBytes("US-ASCII"));
+                } else {
+                    writeResponse(out, 200, "ETag: " + ETAG + "\r\n"
+                            + "Content-Type: application/json\r\n", mStatus);
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        mServer.close();
+    }
+
+    public void testParsesAsItArrives() throws IOException {
+        final StreamingResponse response = InternetCommunication.retrieve(
+                mServer.getUrl("/status.json"));
+        try {
+            assertEquals(200, response.getStatusCode());
+            assertEquals(ETAG, response.getHeader("ETag"));
+            assertNull(response.getHeader("Last-Modified"));
+            final StationStatus status = StationStatusParser.parse(
+                    new InputStreamReader(response.getBody(), "UTF-8"), 1);
+            assertEquals("main", status.playlist);
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testNotModified() throws IOException {
+        final StreamingResponse response = InternetCommunication.retrieveConditional(
+                new HttpGet(mServer.getUrl("/status.json")), ETAG, null);
+        try {
+            assertEquals(304, response.getStatusCode());
+            assertEquals(-1, response.getBody().read());
+        } finally {
+            response.close();
+        }
+        assertNotNull(get());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testErrorReleasesConnection() throws IOException {
+        assertNull(InternetCommunication.retrieve(mServer.getUrl("/error")));
+        get().close();
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testCloseKeepsConnection() throws IOException {
+        final StreamingResponse response = get();
+        // Parsing stopped early, the rest is read on close.
+        response.getBody().read(new byte[16]);
+        response.close();
+        response.close();
+        final StreamingResponse next = get();
+        assertEquals(mStatus.length, readAll(next.getBody()));
+        next.close();
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    public void testAbortDropsConnection() throws IOException {
+        final StreamingResponse response = get();
+        response.getBody().read(new byte[16]);
+        response.abort();
+        response.close();
+        get().close();
+        assertEquals(2, mServer.getConnectionCount());
+    }
+
+    // Runs far more responses than the pool has connections. Any response
+    //  whose connection isn't handed back would soon leave none to use, and
+    //  any stream left open would show up as a file descriptor.
+    public void testSoak() throws IOException, InterruptedException {
+        final int iterations = 4000;
+        // Warms up the pool so its connection isn't counted as a leak.
+        get().close();
+        final int fdsBefore = countFileDescriptors();
+        int aborted = 0;
+        for (int i = 0; i < iterations; i++) {
+            final StreamingResponse response = get();
+            try {
+                switch (i % 4) {
+                case 0:
+                    readAll(response.getBody());
+                    break;
+                case 1:
+                    response.getBody().read(new byte[100]);
+                    break;
+                case 2:
+                    // Never looked at the body.
+                    break;
+                default:
+                    response.abort();
+                    aborted++;
+                    break;
+                }
+            } finally {
+                response.close();
+            }
+        }
+        assertEquals(iterations + 1, mServer.getRequestCount());
+        assertTrue(mServer.getConnectionCount() <= aborted + 1);
+        // Aborted connections are closed as they go, not piled up.
+        assertTrue(mServer.getMostOpenConnections() <= SOCKET_SLACK);
+
+        // The server side of an aborted connection closes a moment later.
+        final long giveUp = System.currentTimeMillis() + 5000;
+        while (mServer.getOpenConnectionCount() > 1 && System.currentTimeMillis() < giveUp) {
+            Thread.sleep(10);
+        }
+        assertTrue(mServer.getOpenConnectionCount() <= 1);
+        final int fdsAfter = countFileDescriptors();
+        Log.i(TAG, "At most " + mServer.getMostOpenConnections() + " connections open, "
+                + fdsBefore + " descriptors before and " + fdsAfter + " after");
+        if (fdsBefore >= 0 && fdsAfter >= 0) {
+            assertTrue("Leaked " + (fdsAfter - fdsBefore) + " descriptors",
+                    fdsAfter - fdsBefore <= FD_SLACK);
+        }
+    }
+
+    // Open file descriptors of this process, or -1 where that can't be told.
+    private static int countFileDescriptors() {
+        final String[] fds = new File("/proc/self/fd").list();
+        return fds == null ? -1 : fds.length;
+    }
+
+    private StreamingResponse get() throws IOException {
+        final StreamingResponse response = InternetCommunication.retrieveConditional(
+                new HttpGet(mServer.getUrl("/status.json")), null, null);
+        assertNotNull(response);
+        return response;
+    }
+
+    private static int readAll(InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        int total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+        }
+        return total;
+    }
+}
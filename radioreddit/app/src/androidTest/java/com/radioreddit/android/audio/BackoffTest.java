@@ -0,0 +1,54 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import junit.framework.TestCase;
+
+public class BackoffTest extends TestCase {
+    public void testDoublesWithinUpperHalf() {
+        final Backoff backoff = new Backoff(1000, 60000);
+        long ceiling = 1000;
+        for (int i = 0; i < 10; i++) {
+            final long delay = backoff.nextDelay();
+            assertTrue("Attempt " + i + " waited " + delay, delay >= ceiling / 2);
+            assertTrue("Attempt " + i + " waited " + delay, delay <= ceiling);
+            ceiling = Math.min(ceiling * 2, 60000);
+        }
+        assertEquals(10, backoff.getAttempts());
+    }
+
+    public void testCapHoldsAfterManyAttempts() {
+        final Backoff backoff = new Backoff(1000, 60000);
+        for (int i = 0; i < 200; i++) {
+            final long delay = backoff.nextDelay();
+            assertTrue(delay > 0);
+            assertTrue(delay <= 60000);
+        }
+    }
+
+    public void testResetStartsOver() {
+        final Backoff backoff = new Backoff(1000, 60000);
+        for (int i = 0; i < 5; i++) {
+            backoff.nextDelay();
+        }
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelay() <= 1000);
+    }
+}
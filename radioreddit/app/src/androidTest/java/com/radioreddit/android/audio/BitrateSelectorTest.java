@@ -0,0 +1,95 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import junit.framework.TestCase;
+
+public class BitrateSelectorTest extends TestCase {
+    private static final int[] BITRATES = {64, 128, 192};
+    // Past the up-switch threshold, yet under a third of what the default
+    //  ring buffer holds at 128kbps.
+    private static final long WELL_BUFFERED = 10000;
+
+    private ThroughputEstimator mEstimator;
+    private BitrateSelector mSelector;
+
+    @Override
+    protected void setUp() {
+        mEstimator = new ThroughputEstimator();
+        mSelector = new BitrateSelector(mEstimator);
+    }
+
+    public void testStartsInTheMiddleWithoutAnEstimate() {
+        assertEquals(128, mSelector.selectInitial(BITRATES));
+    }
+
+    public void testStartsWithWhatThroughputCarries() {
+        measure(250);
+        assertEquals(128, mSelector.selectInitial(BITRATES));
+        measure(1000);
+        assertEquals(192, mSelector.selectInitial(BITRATES));
+    }
+
+    public void testStepsDownOnRepeatedUnderruns() {
+        measure(1000);
+        assertEquals(128, mSelector.evaluate(BITRATES, 128, 1, WELL_BUFFERED));
+        assertEquals(64, mSelector.evaluate(BITRATES, 128, 2, WELL_BUFFERED));
+        assertEquals(64, mSelector.evaluate(BITRATES, 64, 3, WELL_BUFFERED));
+        assertEquals(1, mSelector.getDownSwitchCount());
+    }
+
+    public void testStepsUpAfterCleanPlayback() {
+        measure(1000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(64, mSelector.evaluate(BITRATES, 64, 0, WELL_BUFFERED));
+        }
+        assertEquals(128, mSelector.evaluate(BITRATES, 64, 0, WELL_BUFFERED));
+        assertEquals(1, mSelector.getUpSwitchCount());
+    }
+
+    public void testStaysDownWithoutHeadroom() {
+        measure(250);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(128, mSelector.evaluate(BITRATES, 128, 0, WELL_BUFFERED));
+        }
+    }
+
+    public void testStaysDownWithLittleBuffered() {
+        measure(1000);
+        for (int i = 0; i < 12; i++) {
+            assertEquals(64, mSelector.evaluate(BITRATES, 64, 0, 4000));
+        }
+    }
+
+    public void testUnderrunStartsTheCountOver() {
+        measure(1000);
+        for (int i = 0; i < 5; i++) {
+            mSelector.evaluate(BITRATES, 64, 0, WELL_BUFFERED);
+        }
+        mSelector.evaluate(BITRATES, 64, 1, WELL_BUFFERED);
+        assertEquals(64, mSelector.evaluate(BITRATES, 64, 0, WELL_BUFFERED));
+    }
+
+    // Feeds the estimator enough identical reads to settle on a throughput.
+    private void measure(int kbps) {
+        for (int i = 0; i < 50; i++) {
+            mEstimator.addSample(8000, 8000L * 8 * 1000000 / kbps);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IcyInputStreamTest extends TestCase {
+    private static final int META_INT = 16;
+
+    public void testParseTitle() {
+        assertEquals("Artist - Title",
+                IcyInputStream.parseTitle("StreamTitle='Artist - Title';StreamUrl='';"));
+        assertEquals("Artist - Title", IcyInputStream.parseTitle("StreamTitle='Artist - Title';"));
+    }
+
+    public void testParseTitleWithQuotes() {
+        assertEquals("Don't Stop - 'Til Dawn",
+                IcyInputStream.parseTitle("StreamTitle='Don't Stop - 'Til Dawn';StreamUrl='x';"));
+    }
+
+    public void testParseTitleWithoutTerminator() {
+        assertEquals("Artist - Title", IcyInputStream.parseTitle("StreamTitle='Artist - Title'\0\0"));
+        assertNull(IcyInputStream.parseTitle("StreamTitle='Artist - Tit"));
+    }
+
+    public void testParseTitleMissing() {
+        assertNull(IcyInputStream.parseTitle("StreamUrl='http://example.com';"));
+        assertNull(IcyInputStream.parseTitle(""));
+    }
+
+    public void testStripsMetadata() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (int block = 0; block < 4; block++) {
+            for (int i = 0; i < META_INT; i++) {
+                stream.write(block * META_INT + i);
+                audio.write(block * META_INT + i);
+            }
+            writeMetadata(stream, block < 2 ? "StreamTitle='First';" : "StreamTitle='Second';");
+        }
+
+        final List<String> titles = new ArrayList<String>();
+        final IcyInputStream in = new IcyInputStream(new ByteArrayInputStream(stream.toByteArray()),
+                META_INT, new IcyInputStream.TitleListener() {
+            @Override
+            public void onStreamTitle(String title) {
+                titles.add(title);
+            }
+        });
+        final ByteArrayOutputStream read = new ByteArrayOutputStream();
+        // Odd sized reads so they straddle the metadata blocks.
+        final byte[] buffer = new byte[7];
+        try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                read.write(buffer, 0, count);
+            }
+        } catch (EOFException e) {
+            // The test stream ends right after a metadata block.
+        }
+        in.close();
+
+        assertTrue(Arrays.equals(audio.toByteArray(), read.toByteArray()));
+        assertEquals(2, titles.size());
+        assertEquals("First", titles.get(0));
+        assertEquals("Second", titles.get(1));
+        assertEquals("Second", in.getTitle());
+    }
+
+    public void testEmptyMetadataKeepsTitle() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(new byte[META_INT]);
+        writeMetadata(stream, "StreamTitle='First';");
+        stream.write(new byte[META_INT]);
+        stream.write(0);
+        stream.write(new byte[META_INT]);
+
+        final IcyInputStream in = new IcyInputStream(
+                new ByteArrayInputStream(stream.toByteArray()), META_INT, null);
+        final byte[] buffer = new byte[3 * META_INT];
+        int total = 0;
+        int count;
+        while (total < buffer.length
+                && (count = in.read(buffer, total, buffer.length - total)) != -1) {
+            total += count;
+        }
+        assertEquals(3 * META_INT, total);
+        assertEquals("First", in.getTitle());
+    }
+
+    // Writes a length byte and the text padded with NULs to a multiple of 16.
+    private static void writeMetadata(ByteArrayOutputStream out, String text) throws IOException {
+        final byte[] bytes = text.getBytes("UTF-8");
+        final int blocks = (bytes.length + 15) / 16;
+        out.write(blocks);
+        out.write(bytes);
+        out.write(new byte[blocks * 16 - bytes.length]);
+    }
+}
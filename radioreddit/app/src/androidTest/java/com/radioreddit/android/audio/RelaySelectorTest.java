@@ -0,0 +1,140 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import com.radioreddit.android.api.Relay;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs RelaySelector and StreamProxy against stand-in relays that are slow
+ * in different ways or stop sending altogether.
+ */
+public class RelaySelectorTest extends TestCase {
+    // More than the proxy holds back before serving, less than it buffers.
+    private static final int BEFORE_STOPPING = 128 * 1024;
+
+    private final List<StandInRelay> mServers = new ArrayList<>();
+    private StreamProxy mProxy;
+
+    @Override
+    protected void tearDown() throws IOException {
+        if (mProxy != null) {
+            mProxy.stop();
+        }
+        for (StandInRelay server : mServers) {
+            server.close();
+        }
+    }
+
+    public void testProbeRanksByLatency() throws IOException {
+        // Listed worst first so the order can't come from the listing.
+        final Relay slowAudio = relay(0, 400, StandInRelay.NEVER);
+        final Relay slowHeaders = relay(150, 0, StandInRelay.NEVER);
+        final Relay fast = relay(0, 0, StandInRelay.NEVER);
+        final RelaySelector selector = new RelaySelector(
+                new Relay[] {slowAudio, slowHeaders, fast});
+        selector.probe();
+
+        assertSame(fast, selector.select());
+        assertSame(slowHeaders, selector.next(fast));
+        assertTrue(selector.getScore(fast) < selector.getScore(slowHeaders));
+        assertTrue(selector.getScore(slowHeaders) < selector.getScore(slowAudio));
+        for (StandInRelay server : mServers) {
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    public void testReportsMoveScores() {
+        final Relay first = new Relay("first.invalid/main", 128);
+        final Relay second = new Relay("second.invalid/main", 128);
+        final RelaySelector selector = new RelaySelector(new Relay[] {first, second});
+        final double unknown = selector.getScore(first);
+        // Ties keep the listed order.
+        assertSame(first, selector.select());
+
+        selector.reportFailure(first);
+        assertTrue(selector.getScore(first) > unknown);
+        assertSame(second, selector.select());
+        final double once = selector.getScore(first);
+        selector.reportFailure(first);
+        assertTrue(selector.getScore(first) > once);
+
+        // Success clears the failures and pulls the latency towards it.
+        selector.reportSuccess(first, 10, 20);
+        assertTrue(selector.getScore(first) < unknown);
+        assertSame(first, selector.select());
+        selector.reportSuccess(second, 5, 5);
+        assertSame(second, selector.select());
+        assertSame(first, selector.next(second));
+
+        // Relays from elsewhere are ignored.
+        final double firstScore = selector.getScore(first);
+        final double secondScore = selector.getScore(second);
+        final Relay other = new Relay("other.invalid/main", 128);
+        selector.reportFailure(other);
+        selector.reportSuccess(other, 0, 0);
+        assertEquals(firstScore, selector.getScore(first));
+        assertEquals(secondScore, selector.getScore(second));
+        assertEquals(Double.MAX_VALUE, selector.getScore(other));
+    }
+
+    public void testFailsOverFromStalledRelay() throws IOException, InterruptedException {
+        final Relay stalling = relay(0, 0, BEFORE_STOPPING);
+        final Relay backup = relay(0, 0, StandInRelay.NEVER);
+        final RelaySelector selector = new RelaySelector(new Relay[] {stalling, backup});
+        mProxy = new StreamProxy(selector);
+        assertSame(stalling, mProxy.getRelay());
+
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(mProxy.start()).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        final InputStream in = connection.getInputStream();
+        final byte[] buffer = new byte[8192];
+        long read = 0;
+        // The stall timeout plus time to spare.
+        final long giveUp = System.currentTimeMillis() + 15000;
+        while (mProxy.getFailoverCount() == 0 || read < 2 * BEFORE_STOPPING) {
+            assertTrue("Read " + read + " bytes", System.currentTimeMillis() < giveUp);
+            final int chunk = in.read(buffer);
+            assertTrue(chunk != -1);
+            read += chunk;
+        }
+        connection.disconnect();
+
+        assertEquals(1, mProxy.getFailoverCount());
+        assertSame(backup, mProxy.getRelay());
+        assertEquals(1, mServers.get(1).getRequestCount());
+        assertTrue(selector.getScore(stalling) > selector.getScore(backup));
+        assertSame(backup, selector.select());
+    }
+
+    private Relay relay(long headerDelay, long audioDelay, int freezeAfter) throws IOException {
+        final StandInRelay server = new StandInRelay(headerDelay, audioDelay, freezeAfter);
+        mServers.add(server);
+        return server.getRelay();
+    }
+}
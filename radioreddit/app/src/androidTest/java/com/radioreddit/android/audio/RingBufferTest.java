@@ -0,0 +1,98 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import junit.framework.TestCase;
+
+public class RingBufferTest extends TestCase {
+    public void testWrapsAround() throws Exception {
+        final RingBuffer buffer = new RingBuffer(10);
+        final byte[] out = new byte[10];
+        for (int round = 0; round < 5; round++) {
+            buffer.write(new byte[] {1, 2, 3, 4, 5, 6, 7}, 0, 7);
+            assertEquals(7, buffer.available());
+            assertEquals(7, buffer.read(out, 0, out.length));
+            for (int i = 0; i < 7; i++) {
+                assertEquals(i + 1, out[i]);
+            }
+        }
+        assertEquals(0, buffer.available());
+    }
+
+    public void testWriterWaitsForReader() throws Exception {
+        final RingBuffer buffer = new RingBuffer(64);
+        final int total = 100000;
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final byte[] chunk = new byte[37];
+                try {
+                    for (int written = 0; written < total; written += chunk.length) {
+                        final int length = Math.min(chunk.length, total - written);
+                        for (int i = 0; i < length; i++) {
+                            chunk[i] = (byte) (written + i);
+                        }
+                        buffer.write(chunk, 0, length);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                buffer.close();
+            }
+        });
+        writer.start();
+
+        final byte[] chunk = new byte[23];
+        int position = 0;
+        int read;
+        while ((read = buffer.read(chunk, 0, chunk.length)) != -1) {
+            assertTrue(buffer.available() <= buffer.capacity());
+            for (int i = 0; i < read; i++) {
+                assertEquals((byte) (position + i), chunk[i]);
+            }
+            position += read;
+        }
+        assertEquals(total, position);
+        writer.join();
+    }
+
+    public void testDrainsAfterClose() throws Exception {
+        final RingBuffer buffer = new RingBuffer(16);
+        buffer.write(new byte[5], 0, 5);
+        buffer.close();
+        assertTrue(buffer.isClosed());
+        // Writes after closing are dropped.
+        buffer.write(new byte[5], 0, 5);
+        assertEquals(5, buffer.read(new byte[16], 0, 16));
+        assertEquals(-1, buffer.read(new byte[16], 0, 16));
+    }
+
+    public void testAwaitAvailable() throws Exception {
+        final RingBuffer buffer = new RingBuffer(16);
+        buffer.write(new byte[8], 0, 8);
+        assertTrue(buffer.awaitAvailable(8));
+        // Asking for more than fits waits for a full buffer at most.
+        buffer.write(new byte[8], 0, 8);
+        assertTrue(buffer.awaitAvailable(100));
+        buffer.clear();
+        assertEquals(0, buffer.available());
+        buffer.close();
+        assertFalse(buffer.awaitAvailable(1));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import com.radioreddit.android.api.Relay;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class StallWatchdogTest extends TestCase {
+    private static final long TIMEOUT = 8000;
+    // How often MusicService takes a reading.
+    private static final long TICK = 1000;
+
+    private int mStalls;
+    private long mRecoveredAfter;
+    private final StallWatchdog.Callback mCallback = new StallWatchdog.Callback() {
+        @Override
+        public void onStalled() {
+            mStalls++;
+        }
+
+        @Override
+        public void onRecovered(long silentMillis) {
+            mRecoveredAfter = silentMillis;
+        }
+    };
+    private StallWatchdog mWatchdog;
+    private long mNow;
+    private long mBytes;
+    private long mPosition;
+
+    @Override
+    protected void setUp() {
+        mWatchdog = new StallWatchdog(TIMEOUT, mCallback);
+    }
+
+    public void testQuietWhilePlaying() {
+        play(60000);
+        assertEquals(0, mStalls);
+        assertFalse(mWatchdog.isSilent());
+        assertEquals(16000.0, mWatchdog.getByteRate(), 1.0);
+    }
+
+    public void testRestartsAfterTimeout() {
+        play(5000);
+        silence(TIMEOUT - TICK);
+        assertEquals(0, mStalls);
+        silence(TICK);
+        assertEquals(1, mStalls);
+        assertTrue(mWatchdog.isSilent());
+        assertEquals(1, mWatchdog.getStallCount());
+    }
+
+    public void testBacksOffWhileSilent() {
+        play(5000);
+        silence(TIMEOUT);
+        assertEquals(1, mStalls);
+        // The first retry comes 1 to 2 seconds later, the next 2 to 4.
+        silence(2 * TICK);
+        assertEquals(2, mStalls);
+        silence(TICK);
+        assertEquals(2, mStalls);
+        silence(3 * TICK);
+        assertEquals(3, mStalls);
+        assertEquals(3, mWatchdog.getRestartCount());
+        assertEquals(1, mWatchdog.getStallCount());
+    }
+
+    public void testRecovery() {
+        play(5000);
+        silence(TIMEOUT + 2 * TICK);
+        play(TICK);
+        assertFalse(mWatchdog.isSilent());
+        assertEquals(1, mWatchdog.getRecoveryCount());
+        assertEquals(TIMEOUT + 3 * TICK, mRecoveredAfter);
+        assertEquals(TIMEOUT + 3 * TICK, mWatchdog.getSilentMillis(mNow));
+    }
+
+    public void testResetForgetsPause() {
+        play(5000);
+        mWatchdog.reset(mNow);
+        // Paused on purpose, no readings are taken.
+        mNow += 60000;
+        play(5000);
+        assertEquals(0, mStalls);
+        assertEquals(0, mWatchdog.getSilentMillis(mNow));
+    }
+
+    // A relay freezing part way through, read through the proxy as the
+    //  player would on the real clock. The proxy fails over by itself, which
+    //  has to count as a recovery.
+    public void testRecoversFromFrozenRelay() throws IOException, InterruptedException {
+        final StandInRelay frozen = new StandInRelay(0, 0, 128 * 1024);
+        final StandInRelay backup = new StandInRelay(0, 0, StandInRelay.NEVER);
+        final StreamProxy proxy = new StreamProxy(new RelaySelector(
+                new Relay[] {frozen.getRelay(), backup.getRelay()}));
+        // Shorter than the proxy's own stall timeout, so the silence is seen.
+        mWatchdog = new StallWatchdog(1000, mCallback);
+        final AtomicLong played = new AtomicLong();
+        try {
+            final InputStream in = new URL(proxy.start()).openStream();
+            final Thread player = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] buffer = new byte[4096];
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            played.addAndGet(read);
+                        }
+                    } catch (IOException e) {
+                        // Stopped.
+                    }
+                }
+            });
+            player.setDaemon(true);
+            player.start();
+
+            final long giveUp = System.currentTimeMillis() + 20000;
+            while (mWatchdog.getRecoveryCount() == 0) {
+                assertTrue(System.currentTimeMillis() < giveUp);
+                mWatchdog.check(System.currentTimeMillis(), proxy.getBytesFetched(), played.get());
+                Thread.sleep(100);
+            }
+        } finally {
+            proxy.stop();
+            frozen.close();
+            backup.close();
+        }
+        assertEquals(1, mWatchdog.getStallCount());
+        assertTrue(mStalls >= 1);
+        assertTrue(mRecoveredAfter >= 1000);
+        assertEquals(1, proxy.getFailoverCount());
+        assertEquals(backup.getRelay().server, proxy.getRelay().server);
+    }
+
+    private void play(long millis) {
+        for (long end = mNow + millis; mNow < end; mNow += TICK) {
+            mBytes += 16000;
+            mPosition += TICK;
+            mWatchdog.check(mNow, mBytes, mPosition);
+        }
+    }
+
+    private void silence(long millis) {
+        for (long end = mNow + millis; mNow < end; mNow += TICK) {
+            mWatchdog.check(mNow, mBytes, mPosition);
+        }
+    }
+}
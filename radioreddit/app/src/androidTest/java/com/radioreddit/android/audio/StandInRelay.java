@@ -0,0 +1,69 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import com.radioreddit.android.api.Relay;
+import com.radioreddit.android.api.StandInHttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * An Icecast relay stand-in that can be slow to answer, slow to start the
+ * audio, or go silent part way through without closing the connection.
+ */
+public class StandInRelay extends StandInHttpServer {
+    // For a relay that never goes silent.
+    public static final int NEVER = -1;
+
+    private final long mHeaderDelay;
+    private final long mAudioDelay;
+    private final int mFreezeAfter;
+
+    // Waits headerDelay before the headers and audioDelay before the audio,
+    //  and freezes after sending freezeAfter bytes unless that's NEVER.
+    public StandInRelay(long headerDelay, long audioDelay, int freezeAfter) throws IOException {
+        mHeaderDelay = headerDelay;
+        mAudioDelay = audioDelay;
+        mFreezeAfter = freezeAfter;
+    }
+
+    public Relay getRelay() {
+        final String url = getUrl("/main");
+        return new Relay(url.substring("http://".length()), 128);
+    }
+
+    @Override
+    protected boolean respond(String path, Map<String, String> headers, OutputStream out)
+            throws IOException, InterruptedException {
+        Thread.sleep(mHeaderDelay);
+        out.write("ICY 200 OK\r\ncontent-type: audio/mpeg\r\n\r\n".getBytes("US-ASCII"));
+        out.flush();
+        Thread.sleep(mAudioDelay);
+        final byte[] chunk = new byte[4096];
+        for (int sent = 0; mFreezeAfter == NEVER || sent < mFreezeAfter; sent += chunk.length) {
+            out.write(chunk);
+        }
+        out.flush();
+        // Frozen, until the client gives up.
+        Thread.sleep(Long.MAX_VALUE);
+        return false;
+    }
+}
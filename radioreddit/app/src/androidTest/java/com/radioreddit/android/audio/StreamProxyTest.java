@@ -0,0 +1,145 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import com.radioreddit.android.api.Relay;
+import com.radioreddit.android.api.StandInHttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Plays a stand-in relay through the proxy the way MediaPlayer would.
+ */
+public class StreamProxyTest extends TestCase {
+    // More than the proxy buffers, so the relay has to wait for the reader.
+    private static final int STREAM_LENGTH = 1024 * 1024;
+    // Where the relay on /pause stops for a while, then carries on. The
+    //  pause is shorter than the proxy's stall timeout.
+    private static final int PAUSE_AT = 256 * 1024;
+    private static final long PAUSE_MILLIS = 2000;
+
+    private StandInHttpServer mRelay;
+    private StreamProxy mProxy;
+
+    @Override
+    protected void setUp() throws IOException {
+        mRelay = new StandInHttpServer() {
+            @Override
+            protected boolean respond(String path, Map<String, String> headers,
+                    OutputStream out) throws IOException {
+                out.write("ICY 200 OK\r\ncontent-type: audio/mpeg\r\n\r\n".getBytes("US-ASCII"));
+                final byte[] chunk = new byte[4096];
+                for (int sent = 0; sent < STREAM_LENGTH; sent += chunk.length) {
+                    if (sent == PAUSE_AT && path.equals("/pause")) {
+                        out.flush();
+                        try {
+                            Thread.sleep(PAUSE_MILLIS);
+                        } catch (InterruptedException e) {
+                            return false;
+                        }
+                    }
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = pattern(sent + i);
+                    }
+                    out.write(chunk);
+                }
+                return false;
+            }
+        };
+        mProxy = createProxy("/main");
+    }
+
+    private StreamProxy createProxy(String path) {
+        final String url = mRelay.getUrl(path);
+        final Relay relay = new Relay(url.substring("http://".length()), 128);
+        return new StreamProxy(new RelaySelector(new Relay[] {relay}));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        mProxy.stop();
+        mRelay.close();
+    }
+
+    public void testPassesAudioThrough() throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(mProxy.start()).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("audio/mpeg", connection.getContentType());
+        final InputStream in = connection.getInputStream();
+        readPattern(in, 0, STREAM_LENGTH);
+        in.close();
+        assertTrue(mProxy.getBytesFetched() >= STREAM_LENGTH);
+        assertTrue(mProxy.getBytesServed() >= STREAM_LENGTH);
+    }
+
+    public void testHoldsBackUntilHighWatermark() throws IOException {
+        final HttpURLConnection connection =
+                (HttpURLConnection) new URL(mProxy.start()).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(mProxy.getBytesFetched() >= mProxy.getHighWatermark());
+        connection.disconnect();
+    }
+
+    // The relay pausing for longer than what's buffered lasts. The player
+    //  runs dry and waits, then carries on from the same place.
+    public void testUnderrunWhileRelayPauses() throws IOException {
+        mProxy.stop();
+        mProxy = createProxy("/pause");
+        final InputStream in = new URL(mProxy.start()).openStream();
+        // Well short of the pause, what follows is already buffered.
+        readPattern(in, 0, PAUSE_AT / 2);
+        final int before = mProxy.getUnderrunCount();
+        final long start = System.currentTimeMillis();
+        readPattern(in, PAUSE_AT / 2, PAUSE_AT + 4096);
+        assertTrue(System.currentTimeMillis() - start >= PAUSE_MILLIS / 2);
+        assertTrue(mProxy.getUnderrunCount() > before);
+        // Waited out on the same connection. The relay can't have reached
+        //  the end yet, there's more left than the buffer holds.
+        assertEquals(0, mProxy.getReconnectCount());
+        assertEquals(1, mRelay.getRequestCount());
+
+        readPattern(in, PAUSE_AT + 4096, STREAM_LENGTH);
+        in.close();
+    }
+
+    // Reads from position up to end, checking every byte.
+    private static void readPattern(InputStream in, int position, int end) throws IOException {
+        final byte[] buffer = new byte[8192];
+        while (position < end) {
+            final int read = in.read(buffer, 0, Math.min(buffer.length, end - position));
+            assertTrue("Stream ended at " + position, read != -1);
+            for (int i = 0; i < read; i++) {
+                assertEquals("Byte " + (position + i), pattern(position + i), buffer[i]);
+            }
+            position += read;
+        }
+    }
+
+    private static byte pattern(int position) {
+        return (byte) (position * 31 % 251);
+    }
+}
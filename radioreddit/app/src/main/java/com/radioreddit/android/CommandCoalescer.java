@@ -0,0 +1,124 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android;
+
+/**
+ * Folds a burst of play, pause and station commands into what they add up
+ * to, so the service acts once the burst settles instead of building
+ * players only to tear them down again.
+ */
+public class CommandCoalescer {
+    // What the settled commands act on, MusicService in the app.
+    public interface Player {
+        public PlayerState getPlayerState();
+
+        // Only called when the burst ended on another station.
+        public void changeStream(int streamId);
+
+        public void play();
+
+        public void pause();
+
+        public void resume();
+
+        public void stop();
+    }
+
+    // What queued commands add up to so far, null and -1 when they leave
+    //  the play state or station alone.
+    private PlayerState mWantedState = null;
+    private int mWantedStream = -1;
+
+    public void togglePlay(PlayerState current) {
+        mWantedState = getWantedState(current) == PlayerState.PLAYING
+                ? PlayerState.IDLE : PlayerState.PLAYING;
+    }
+
+    public void togglePause(PlayerState current) {
+        mWantedState = getWantedState(current) == PlayerState.PLAYING
+                ? PlayerState.PAUSED : PlayerState.PLAYING;
+    }
+
+    public void changeStream(int streamId) {
+        mWantedStream = streamId;
+    }
+
+    // The play state the burst ends in, or null if it doesn't touch it.
+    //  Starts a new burst.
+    public PlayerState takeWantedState() {
+        final PlayerState wanted = mWantedState;
+        mWantedState = null;
+        return wanted;
+    }
+
+    // The station the burst ends on, or -1 if it doesn't change station.
+    //  Starts a new burst.
+    public int takeWantedStream() {
+        final int streamId = mWantedStream;
+        mWantedStream = -1;
+        return streamId;
+    }
+
+    // Acts on what the burst adds up to, once it has settled. A player
+    //  already preparing or playing is left to carry on.
+    public void apply(Player player) {
+        final int streamId = takeWantedStream();
+        final PlayerState wanted = takeWantedState();
+
+        if (streamId != -1) {
+            player.changeStream(streamId);
+        }
+        if (wanted == null) {
+            return;
+        }
+        final PlayerState state = player.getPlayerState();
+        switch (wanted) {
+        case PLAYING:
+            if (state == PlayerState.PAUSED) {
+                player.resume();
+            } else if (state != PlayerState.PREPARING && state != PlayerState.PLAYING) {
+                player.play();
+            }
+            // Already preparing or playing, nothing to do.
+            break;
+        case PAUSED:
+            player.pause();
+            break;
+        default:
+            player.stop();
+            break;
+        }
+    }
+
+    // The play state that queued commands are heading for.
+    private PlayerState getWantedState(PlayerState current) {
+        if (mWantedState != null) {
+            return mWantedState;
+        }
+        switch (current) {
+        case PREPARING:
+        case PLAYING:
+            return PlayerState.PLAYING;
+        case PAUSED:
+            return PlayerState.PAUSED;
+        default:
+            return PlayerState.IDLE;
+        }
+    }
+}
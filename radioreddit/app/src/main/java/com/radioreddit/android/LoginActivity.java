@@ -120,6 +120,11 @@ public class LoginActivity extends ActionBarActivity implements LoginResultCallb
         }
     }
 
+    @Override
+    public void onLoginTimedOut() {
+        toast(R.string.login_timed_out);
+    }
+
     private void toast(int resId) {
         Toast.makeText(mContext, resId, Toast.LENGTH_SHORT).show();
     }
@@ -39,9 +39,14 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ImageButton;
 import android.widget.TextView;
 
+import com.radioreddit.android.api.StationStatus;
+import com.radioreddit.android.api.StationStatusAggregator;
+
 import java.util.Locale;
 
 public class MainActivity extends ActionBarActivity implements PlaystateChangedListener {
@@ -75,6 +80,7 @@ public class MainActivity extends ActionBarActivity implements PlaystateChangedL
         }
         @Override
         public void onServiceDisconnected(ComponentName className) {
+            mService.getStationStatuses().setListener(null);
             mService.unregisterPlaystateListener(MainActivity.this);
             mService = null;
         }
@@ -112,6 +118,47 @@ public class MainActivity extends ActionBarActivity implements PlaystateChangedL
         }
     };
 
+    // What each station is playing, shown under its name in the tune dialog.
+    private final String[] mStationInfo = new String[MusicService.STREAM_NAMES.length];
+    private final BaseAdapter mTuneAdapter = new BaseAdapter() {
+        @Override
+        public int getCount() {
+            return MusicService.STREAM_NAMES.length;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return MusicService.STREAM_NAMES[position];
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View view = convertView != null ? convertView : getLayoutInflater()
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            ((TextView) view.findViewById(android.R.id.text1))
+                    .setText(MusicService.STREAM_NAMES[position]);
+            ((TextView) view.findViewById(android.R.id.text2))
+                    .setText(mStationInfo[position] == null ? "" : mStationInfo[position]);
+            return view;
+        }
+    };
+
+    private final StationStatusAggregator.Listener mStationStatusListener =
+            new StationStatusAggregator.Listener() {
+        @Override
+        public void onStationStatus(int station, StationStatus status) {
+            final AllSongInfo song = status.getCurrentSong(getString(R.string.info_filler));
+            mStationInfo[station] = getString(R.string.tune_now_playing,
+                    song.artist, song.title, status.listeners);
+            mTuneAdapter.notifyDataSetChanged();
+        }
+    };
+
     // Cancel listener for the tune dialog.
     private final DialogInterface.OnClickListener mTuneDialogCancelListener =
             new DialogInterface.OnClickListener() {
@@ -224,6 +271,9 @@ public class MainActivity extends ActionBarActivity implements PlaystateChangedL
             Log.d(TAG, "++onPause++");
         }
         unregisterReceiver(mBackendReceiver);
+        if (mService != null) {
+            mService.getStationStatuses().setListener(null);
+        }
     }
 
     @Override
@@ -293,7 +343,7 @@ public class MainActivity extends ActionBarActivity implements PlaystateChangedL
         case DIALOG_TUNE:
             builder.setTitle(R.string.tune_dialog_title);
             builder.setNeutralButton(android.R.string.cancel, mTuneDialogCancelListener);
-            builder.setItems(MusicService.STREAM_NAMES, new DialogInterface.OnClickListener() {
+            builder.setAdapter(mTuneAdapter, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
                     final Intent chgStream = new Intent(MusicService.ACTION_PLAYER_COMMAND);
@@ -323,6 +373,18 @@ public class MainActivity extends ActionBarActivity implements PlaystateChangedL
         return null;
     }
 
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void onPrepareDialog(int id, Dialog dialog) {
+        super.onPrepareDialog(id, dialog);
+        if (id == DIALOG_TUNE && mService != null) {
+            // Fill in what's playing on each station, fetching what's stale.
+            final StationStatusAggregator statuses = mService.getStationStatuses();
+            statuses.setListener(mStationStatusListener);
+            statuses.refresh();
+        }
+    }
+
     // Called only after the song info changes
     public void displaySongInfo(AllSongInfo songInfo) {
         mNoInternet.setVisibility(View.GONE);
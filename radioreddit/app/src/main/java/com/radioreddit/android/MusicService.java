@@ -31,22 +31,50 @@ import android.content.SharedPreferences;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Binder;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
+import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.radioreddit.android.api.GetSongInfo;
+import com.radioreddit.android.api.HttpResponseCache;
+import com.radioreddit.android.api.HttpTransport;
+import com.radioreddit.android.api.MetadataPipeline;
+import com.radioreddit.android.api.NowPlayingChannel;
 import com.radioreddit.android.api.RedditApi;
+import com.radioreddit.android.api.RedditIdIndex;
+import com.radioreddit.android.api.RedditInfoCache;
+import com.radioreddit.android.audio.AudioBuffer;
+import com.radioreddit.android.audio.BitrateSelector;
+import com.radioreddit.android.audio.IcyInputStream;
+import com.radioreddit.android.audio.PlayerSession;
+import com.radioreddit.android.audio.RelaySelector;
+import com.radioreddit.android.audio.RingBuffer;
+import com.radioreddit.android.audio.SongRecorder;
+import com.radioreddit.android.audio.StallWatchdog;
+import com.radioreddit.android.audio.StreamProxy;
+import com.radioreddit.android.audio.ThroughputEstimator;
+import com.radioreddit.android.audio.TimeShiftBuffer;
 import com.radioreddit.android.api.Relay;
+import com.radioreddit.android.api.StationStatus;
+import com.radioreddit.android.api.StationStatusAggregator;
+import com.radioreddit.android.api.StatusValidatorCache;
 import com.radioreddit.android.api.Stream;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 public class MusicService extends Service {
     public static final boolean DEBUG = false;
@@ -56,14 +84,14 @@ public class MusicService extends Service {
 
     // TODO: Figure out how to load all this information when the app starts up.
     private static final Stream[] STREAMS = {
-        new Stream("Main", "/api/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/main_mp3_128k")}),
-        new Stream("Electronic", "/api/electronic/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/electronic_mp3_128k")}),
-        new Stream("Rock", "/api/rock/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/rock_mp3_128k")}),
-        new Stream("Metal", "/api/metal/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/metal_mp3_128k")}),
-        new Stream("Indie", "/api/indie/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/indie_mp3_128k")}),
-        new Stream("Hip Hop", "/api/hiphop/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/hiphop_mp3_128k")}),
-        new Stream("Random", "/api/random/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/random_mp3_128k")}),
-        new Stream("Talk", "/api/talk/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/talk_mp3_128k")}),
+        new Stream("Main", "/api/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/main_mp3_128k", 128)}),
+        new Stream("Electronic", "/api/electronic/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/electronic_mp3_128k", 128)}),
+        new Stream("Rock", "/api/rock/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/rock_mp3_128k", 128)}),
+        new Stream("Metal", "/api/metal/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/metal_mp3_128k", 128)}),
+        new Stream("Indie", "/api/indie/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/indie_mp3_128k", 128)}),
+        new Stream("Hip Hop", "/api/hiphop/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/hiphop_mp3_128k", 128)}),
+        new Stream("Random", "/api/random/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/random_mp3_128k", 128)}),
+        new Stream("Talk", "/api/talk/", new Relay[] {new Relay("cdn.audiopump.co/radioreddit/talk_mp3_128k", 128)}),
     };
 
     public static final String[] STREAM_NAMES;
@@ -91,6 +119,7 @@ public class MusicService extends Service {
     public static final String KEY_STREAM_NAME = "key_stream_name";
     public static final String KEY_COMMAND = "key_player_command";
     public static final String KEY_IS_PLAYING = "key_is_playing";
+    public static final String KEY_SEEK_BEHIND_LIVE = "key_seek_behind_live";
     // Values for commands captured by the service.
     public static final int CMD_INVALID = 0;
     public static final int CMD_UPVOTE = 1;
@@ -98,19 +127,53 @@ public class MusicService extends Service {
     public static final int CMD_TOGGLE_PLAY = 3;
     public static final int CMD_SAVE = 4;
     public static final int CMD_CHANGE_STREAM = 5;
+    // Only pause and seek when time-shifting, otherwise pausing stops.
+    public static final int CMD_TOGGLE_PAUSE = 6;
+    public static final int CMD_SEEK = 7;
     // Session data used to store login after service has been shutdown.
     public static final String PREF_USER = "user";
     public static final String PREF_MODHASH = "modhash";
     public static final String PREF_COOKIE = "cookie";
     public static final String PREF_STREAM = "stream";
-    // Time delay in milliseconds between attempts to grab songinfo.
-    private static final long UPDATE_INTERVAL = 15000;
+    // Optional tuning of the local stream buffer, all values in bytes.
+    public static final String PREF_BUFFER_SIZE = "buffer_size";
+    public static final String PREF_BUFFER_LOW_WATERMARK = "buffer_low_watermark";
+    public static final String PREF_BUFFER_HIGH_WATERMARK = "buffer_high_watermark";
+    // Length in milliseconds of the crossfade on station change, 0 to cut.
+    public static final String PREF_CROSSFADE = "crossfade";
+    private static final int DEFAULT_CROSSFADE = 500;
+    private static final long CROSSFADE_STEP = 50;
+    // Minutes of live audio kept on disk for pause and rewind, 0 disables.
+    public static final String PREF_TIMESHIFT_MINUTES = "timeshift_minutes";
+    private static final int DEFAULT_TIMESHIFT_MINUTES = 0;
+    // Saves each song played to its own file, within a quota in megabytes.
+    public static final String PREF_RECORD = "record";
+    public static final String PREF_RECORD_QUOTA = "record_quota";
+    // Base URL of a server pushing now-playing events, no push if unset.
+    public static final String PREF_PUSH_URL = "push_url";
+    private static final int DEFAULT_RECORD_QUOTA = 200;
+    // Songinfo polls are otherwise timed by mPollScheduler. This is used
+    //  instead while the relay announces song changes in-band, polling
+    //  is then only a safety net.
+    private static final long SAFETY_UPDATE_INTERVAL = 120000;
+    // Time delay in milliseconds between adaptive bitrate decisions.
+    private static final long BITRATE_EVALUATION_INTERVAL = 10000;
+    // Play and station commands arriving closer together than this are
+    //  folded into one.
+    private static final long COMMAND_SETTLE_DELAY = 300;
+    // Time delay in milliseconds between stall watchdog readings.
+    private static final long WATCHDOG_INTERVAL = 1000;
+    // Bytes of status and reddit responses kept on disk.
+    private static final long HTTP_CACHE_BYTES = 2 * 1024 * 1024;
 
     private Context mContext;
     private SharedPreferences mPreferences;
     private Notification mNotification;
     private Stream mStream;
     private AllSongInfo mSongInfo;
+    // Set when an in-band title change triggered a refresh so the next poll
+    //  comes soon in case status.json hadn't caught up with the audio yet.
+    private boolean mRecheckAfterTitle = false;
 
     // Update runnable fires at a specified interval to grab new songinfo from the server.
     private Runnable mUpdater = new Runnable() {
@@ -119,13 +182,58 @@ public class MusicService extends Service {
             if (DEBUG) {
                 Log.d(TAG, "++Try Song Info Request++");
             }
-            RedditApi.requestSongInfo(MusicService.this, getCookie(),
-                    "http://www.radioreddit.com" + mStream.status + "status.json");
-            mHandler.postDelayed(mUpdater, UPDATE_INTERVAL);
+            mMetadataPipeline.refresh(getStatusUrl(), getCookie());
+            mPollScheduler.onPoll();
+            mHandler.postDelayed(mUpdater, getNextPollDelay());
+            mRecheckAfterTitle = false;
         }
     };
 
+    private final PollScheduler mPollScheduler = new PollScheduler(new PollScheduler.Clock() {
+        @Override
+        public long now() {
+            return SystemClock.elapsedRealtime();
+        }
+    });
+    // Whether mUpdater is scheduled.
+    private boolean mPolling = false;
+    private NowPlayingChannel mPushChannel;
+    // Polls are only a safety net while pushed events are arriving.
+    private boolean mPushConnected = false;
+    private boolean mScreenOn = true;
+
+    private long getNextPollDelay() {
+        if (mRecheckAfterTitle) {
+            return PollScheduler.DEFAULT_INTERVAL;
+        }
+        final boolean inBand = mSession != null && mSession.getProxy().hasMetadata();
+        return inBand || mPushConnected ? SAFETY_UPDATE_INTERVAL : mPollScheduler.getNextDelay();
+    }
+
+    // Nobody sees the song info with the screen off, unless it's needed to
+    //  name recordings.
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mScreenOn = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+            updateObserved();
+            if (mScreenOn && mPolling) {
+                // Catch up on anything missed while backed off.
+                startTimer();
+            }
+        }
+    };
+
+    private void updateObserved() {
+        mPollScheduler.setObserved(mScreenOn || mRecorder != null);
+    }
+
     private Handler mHandler = new Handler();
+    private final StatusValidatorCache mStatusValidators = new StatusValidatorCache();
+    private final MetadataPipeline mMetadataPipeline = new MetadataPipeline(this);
+    private StationStatusAggregator mStationStatuses;
+    private RedditInfoCache mRedditInfoCache;
+    private RedditIdIndex mRedditIdIndex;
     private ArrayList<PlaystateChangedListener> mListeners = new ArrayList<>();
     private PlaystateChangedListener mWidgetPlaystateListener = new PlaystateChangedListener() {
         @Override
@@ -141,10 +249,45 @@ public class MusicService extends Service {
     };
 
     private final IBinder mBinder = new MusicBinder();
-    private MediaPlayer mMediaPlayer = null;
-    private String mStreamUrl = null;
+    // Session currently audible and, during a station change, the one
+    //  being prepared to replace it.
+    private PlayerSession mSession = null;
+    private PlayerSession mPendingSession = null;
+    private final HashMap<String, RelaySelector> mRelaySelectors = new HashMap<>();
+    private final ThroughputEstimator mThroughputEstimator = new ThroughputEstimator();
+    private final BitrateSelector mBitrateSelector = new BitrateSelector(mThroughputEstimator);
+    // Underrun count of the current session at the last bitrate evaluation.
+    private int mLastUnderruns = 0;
+    // Session being faded out after a station change.
+    private PlayerSession mFadingSession = null;
+    private long mCrossfadeStart = 0;
+    private int mCrossfadeDuration = 0;
+    private long mLastTimeToAudio = -1;
+    private PlayerState mState = PlayerState.IDLE;
+    private final CommandCoalescer mCommands = new CommandCoalescer();
+    private SongRecorder mRecorder = null;
+    private final StallWatchdog mWatchdog = new StallWatchdog(
+            StallWatchdog.DEFAULT_STALL_TIMEOUT, new StallWatchdog.Callback() {
+        @Override
+        public void onStalled() {
+            restartStream();
+        }
+
+        @Override
+        public void onRecovered(long silentMillis) {
+            if (DEBUG) {
+                Log.d(TAG, "Audio back after " + silentMillis + "ms of silence");
+            }
+            updateNotification(mSongInfo.artist, mSongInfo.title, mStream.name);
+        }
+    });
+    // Stall the relay was last blamed for, see restartStream().
+    private int mChargedStall = 0;
     private boolean mCanPlay = true;
     private boolean mResume = false;
+    // Type of the network currently in use, -1 while there is none.
+    private int mNetworkType = -1;
+    private long mNetworkLostAt = -1;
 
     private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
         @Override
@@ -195,6 +338,51 @@ public class MusicService extends Service {
         }
     };
 
+    // Moves the relay connections over when the device switches networks,
+    //  for example from Wi-Fi to mobile data. Playback continues from the
+    //  buffer while the new connection is opened.
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final NetworkInfo info = ((ConnectivityManager) getSystemService(
+                    Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
+            if (info == null || !info.isConnected()) {
+                // Also when registering offline, so the first network to come
+                //  up wakes the proxies.
+                if (mNetworkLostAt == -1) {
+                    mNetworkType = -1;
+                    mNetworkLostAt = SystemClock.elapsedRealtime();
+                }
+                if (mSession != null) {
+                    mSession.getProxy().onNetworkLost();
+                }
+                if (mPendingSession != null) {
+                    mPendingSession.getProxy().onNetworkLost();
+                }
+                return;
+            }
+            // Registering delivers the current state, which isn't a change.
+            final boolean changed = mNetworkType != -1
+                    ? info.getType() != mNetworkType : mNetworkLostAt != -1;
+            final long lostAt = mNetworkLostAt == -1
+                    ? SystemClock.elapsedRealtime() : mNetworkLostAt;
+            mNetworkType = info.getType();
+            mNetworkLostAt = -1;
+            if (!changed) {
+                return;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "Network changed to " + info.getTypeName());
+            }
+            if (mSession != null) {
+                mSession.getProxy().reconnect(lostAt);
+            }
+            if (mPendingSession != null) {
+                mPendingSession.getProxy().reconnect(lostAt);
+            }
+        }
+    };
+
     // Receives command intent and update request intent. Grabs command from
     //  intent and passes it down for processing, if no command is specified
     //  then it supplies an invalid value. Update request intents are all
@@ -217,9 +405,12 @@ public class MusicService extends Service {
                     Log.d(TAG, "++Update Request Intent Received++");
                 }
                 final Bundle bundle = getResultExtras(true);
+                // Answer with what's known now, anything newer follows as
+                //  ACTION_SONG_INFO_CHANGED.
+                refreshSongInfo();
                 bundle.putParcelable(KEY_SONG_INFO, mSongInfo);
                 bundle.putString(KEY_STREAM_NAME, mStream.name);
-                bundle.putBoolean(KEY_IS_PLAYING, isPlaying());
+                bundle.putBoolean(KEY_IS_PLAYING, isAudible());
                 setResult(Activity.RESULT_OK, null, bundle);
             }
         }
@@ -240,6 +431,30 @@ public class MusicService extends Service {
         filter.addAction(ACTION_PLAYER_COMMAND);
         filter.addAction(ACTION_REQUEST_UPDATE);
         registerReceiver(mCommandReceiver, filter);
+        registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        final IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, screenFilter);
+        mScreenOn = ((PowerManager) getSystemService(Context.POWER_SERVICE)).isScreenOn();
+        updateObserved();
+
+        final String[] statusUrls = new String[STREAMS.length];
+        for (int i = 0; i < STREAMS.length; i++) {
+            statusUrls[i] = getStatusUrl(STREAMS[i]);
+        }
+        mStationStatuses = new StationStatusAggregator(statusUrls);
+        mRedditInfoCache = new RedditInfoCache(new File(getCacheDir(), "reddit_info.json"));
+        if (HttpTransport.get().getCache() == null) {
+            // Outlives the service along with the transport.
+            HttpTransport.get().setCache(
+                    new HttpResponseCache(new File(getCacheDir(), "http"), HTTP_CACHE_BYTES));
+        }
+        // Not a cache, losing it would mean searching reddit by URL again.
+        mRedditIdIndex = new RedditIdIndex(new File(getFilesDir(), "reddit_ids"));
+
+        // A crash may have left time-shift files behind.
+        TimeShiftBuffer.deleteStaleFiles(getCacheDir());
 
         // Grab any saved stream and if one was never saved default to Main.
         changeStream(mPreferences.getInt(PREF_STREAM, 0));
@@ -281,13 +496,28 @@ public class MusicService extends Service {
         }
 
         // Remove any reference to the media player.
+        mHandler.removeCallbacks(mCommandRunner);
         stop();
 
+        mMetadataPipeline.cancel();
+        mStationStatuses.shutdown();
+        mRedditInfoCache.flush();
+        if (DEBUG) {
+            final HttpResponseCache cache = getHttpCache();
+            Log.d(TAG, String.format(
+                    "HTTP cache: %d hits (%d stale), %d misses, %d revalidated (%d not modified)",
+                    cache.getHitCount(), cache.getStaleHitCount(), cache.getMissCount(),
+                    cache.getRevalidateCount(), cache.getNotModifiedCount()));
+        }
+        HttpTransport.get().closeIdleConnections();
+
         // Unregister widget playstate listener.
         unregisterPlaystateListener(mWidgetPlaystateListener);
 
         // Unregister the command receiver.
         unregisterReceiver(mCommandReceiver);
+        unregisterReceiver(mConnectivityReceiver);
+        unregisterReceiver(mScreenReceiver);
 
         // Unregister our state listener from the system.
         ((TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE)).listen(
@@ -304,39 +534,122 @@ public class MusicService extends Service {
                 .getStreamVolume(AudioManager.STREAM_RING) > 0;
     }
 
-    // Only called by the phone state listener if we need to resume play.
-    private void play() {
-        if (mStreamUrl != null) {
-            play(mStreamUrl);
+    // Starts playing the current stream. Can be called when stopped or
+    //  already playing.
+    public void play() {
+        if (isPlaying()) {
+            stop();
+        }
+        stopTimer();
+        // MediaPlayer reads the relay through a local buffering proxy so
+        //  that network hiccups don't turn into dropouts.
+        mSession = createSession(mStream, mBitrateSelector.selectInitial(mStream.getBitrates()));
+        if (mSession != null) {
+            setState(PlayerState.PREPARING);
+            showNotification();
+            startRecording();
+        } else {
+            setState(PlayerState.ERROR);
         }
     }
 
-    // Called by the main activity when we need to play a new stream.
-    // Can be called when stopped or already playing.
-    public void play(String streamUrl) {
-        if (isPlaying()) {
-            stop();
+    private void startRecording() {
+        if (!mPreferences.getBoolean(PREF_RECORD, false)) {
+            return;
         }
+        File directory = getExternalFilesDir(Environment.DIRECTORY_MUSIC);
+        if (directory == null) {
+            // No external storage mounted.
+            directory = new File(getFilesDir(), "recordings");
+        }
+        mRecorder = new SongRecorder(directory,
+                mPreferences.getInt(PREF_RECORD_QUOTA, DEFAULT_RECORD_QUOTA) * 1024L * 1024L);
+        mRecorder.start();
+        mRecorder.startSong(getSongName(mSongInfo));
+        mSession.getProxy().setRecorder(mRecorder);
+        updateObserved();
+    }
+
+    private void stopRecording() {
+        if (mRecorder != null) {
+            // Detached first so nothing is offered once it stops.
+            if (mSession != null) {
+                mSession.getProxy().setRecorder(null);
+            }
+            mRecorder.stop();
+            mRecorder = null;
+            updateObserved();
+        }
+    }
+
+    // Name for the recording of a song, null while it isn't known yet.
+    private String getSongName(AllSongInfo song) {
+        final String filler = getString(R.string.info_filler);
+        if (song == null || song.title == null || song.artist == null
+                || song.title.equals(filler)) {
+            return null;
+        }
+        return song.artist + " - " + song.title;
+    }
+
+    // Switches to a new stream or bitrate variant while already playing. The
+    //  current player keeps going until the new one is prepared so there's
+    //  no silent gap.
+    private void switchTo(Stream stream, int bitrate) {
+        releasePendingSession();
+        mPendingSession = createSession(stream, bitrate);
+    }
+
+    // Builds a session and starts preparing it, returns null on failure.
+    private PlayerSession createSession(Stream stream, int bitrate) {
+        PlayerSession session = null;
         try {
-            stopTimer();
-            mMediaPlayer = new MediaPlayer();
-            mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            mMediaPlayer.setOnPreparedListener(mPreparedListener);
-            mMediaPlayer.setDataSource(streamUrl);
-            mMediaPlayer.prepareAsync();
-            showNotification();
-            mStreamUrl = streamUrl;
+            session = new PlayerSession(getRelaySelector(stream, bitrate),
+                    createBuffer(bitrate),
+                    mPreferences.getInt(PREF_BUFFER_LOW_WATERMARK,
+                            StreamProxy.DEFAULT_LOW_WATERMARK),
+                    mPreferences.getInt(PREF_BUFFER_HIGH_WATERMARK,
+                            StreamProxy.DEFAULT_HIGH_WATERMARK));
+            final PlayerSession titleSource = session;
+            session.prepare(mPreparedListener, new IcyInputStream.TitleListener() {
+                @Override
+                public void onStreamTitle(final String title) {
+                    // Called on the proxy's fetch thread.
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onStreamTitleChanged(titleSource, title);
+                        }
+                    });
+                }
+            });
+            session.getPlayer().setOnErrorListener(mErrorListener);
+            session.getProxy().setThroughputEstimator(mThroughputEstimator);
+            if (mNetworkLostAt != -1) {
+                session.getProxy().onNetworkLost();
+            }
+            return session;
         } catch (IOException e) {
             Log.e(TAG, "IOException while trying to start media player", e);
             toast(R.string.network_error);
+            if (session != null) {
+                session.release();
+            }
+            return null;
         }
     }
 
     // Called by the main activity when we should stop playing. Can be called
-    //  when playing or already stopped.
+    //  in any state, a session that is still preparing is released without
+    //  ever being started.
     public void stop() {
+        releasePendingSession();
         if (isPlaying()) {
+            setState(PlayerState.STOPPING);
             stopTimer();
+            mHandler.removeCallbacks(mBitrateEvaluator);
+            mHandler.removeCallbacks(mWatchdogRunner);
+            mWatchdog.reset(SystemClock.elapsedRealtime());
 
             // Tell any frontend activities or widgets that the service has
             //  stopped playing and they should update their buttons.
@@ -344,19 +657,289 @@ public class MusicService extends Service {
                 listener.onPlaystateChanged(false);
             }
 
-            mMediaPlayer.stop();
-            mMediaPlayer.release();
-            mMediaPlayer = null;
+            finishCrossfade();
+            stopRecording();
+            mSession.release();
+            mSession = null;
             hideNotification();
         }
+        setState(PlayerState.IDLE);
+    }
+
+    // Time-shifting swaps the in-memory buffer for a bounded file holding
+    //  the configured number of minutes at the given bitrate.
+    private AudioBuffer createBuffer(int bitrate) {
+        final int minutes = mPreferences.getInt(PREF_TIMESHIFT_MINUTES, DEFAULT_TIMESHIFT_MINUTES);
+        if (minutes > 0) {
+            final long bytes = minutes * 60L * bitrate * 1000 / 8;
+            return new TimeShiftBuffer(getCacheDir(), (int) Math.min(bytes, Integer.MAX_VALUE));
+        }
+        return new RingBuffer(
+                mPreferences.getInt(PREF_BUFFER_SIZE, StreamProxy.DEFAULT_BUFFER_SIZE));
+    }
+
+    // Relay health is remembered for as long as the service lives.
+    private RelaySelector getRelaySelector(Stream stream, int bitrate) {
+        final String key = stream.name + "/" + bitrate;
+        RelaySelector selector = mRelaySelectors.get(key);
+        if (selector == null) {
+            selector = new RelaySelector(stream.getRelays(bitrate));
+            mRelaySelectors.put(key, selector);
+        }
+        return selector;
+    }
+
+    // Checks in on the current session and moves to a lower or higher
+    //  bitrate variant when the buffer has been struggling or coasting.
+    private final Runnable mBitrateEvaluator = new Runnable() {
+        @Override
+        public void run() {
+            if (mSession == null) {
+                return;
+            }
+            if (mPendingSession == null) {
+                final StreamProxy proxy = mSession.getProxy();
+                final int underruns = proxy.getUnderrunCount();
+                final int current = mSession.getRelaySelector().getBitrate();
+                final int next = mBitrateSelector.evaluate(mStream.getBitrates(), current,
+                        underruns - mLastUnderruns, proxy.getDelayBehindLive());
+                mLastUnderruns = underruns;
+                if (next != current) {
+                    if (DEBUG) {
+                        Log.d(TAG, "Switching from " + current + "k to " + next + "k at "
+                                + mThroughputEstimator.getKbps() + "kbps measured");
+                    }
+                    switchTo(mStream, next);
+                }
+            }
+            mHandler.postDelayed(mBitrateEvaluator, BITRATE_EVALUATION_INTERVAL);
+        }
+    };
+
+    // Takes a reading for the stall watchdog while audio should be coming
+    //  out. Stops itself in any other state.
+    private final Runnable mWatchdogRunner = new Runnable() {
+        @Override
+        public void run() {
+            final long now = SystemClock.elapsedRealtime();
+            if (mState != PlayerState.PLAYING) {
+                mWatchdog.reset(now);
+                return;
+            }
+            mWatchdog.check(now, mSession.getProxy().getBytesFetched(),
+                    mSession.getPlayer().getCurrentPosition());
+            mHandler.postDelayed(mWatchdogRunner, WATCHDOG_INTERVAL);
+        }
+    };
+
+    private void startWatchdog() {
+        mHandler.removeCallbacks(mWatchdogRunner);
+        mHandler.postDelayed(mWatchdogRunner, WATCHDOG_INTERVAL);
+    }
+
+    // Playback went silent and the proxy couldn't bring it back on its own.
+    //  Prepares a fresh session, the silent one plays on until it's ready in
+    //  case audio comes back in the meantime.
+    private void restartStream() {
+        if (mPendingSession != null) {
+            // Still preparing the last restart or switch, starting over would
+            //  only put audio further off.
+            return;
+        }
+        Log.w(TAG, "Playback stalled, restarting stream");
+        updateNotification(getString(R.string.reconnecting_notification), "", mStream.name);
+        final RelaySelector selector = mSession.getRelaySelector();
+        if (mChargedStall != mWatchdog.getStallCount()) {
+            // Steer the new session away from the relay that went quiet, once
+            //  however many restarts this silence takes.
+            mChargedStall = mWatchdog.getStallCount();
+            selector.reportFailure(mSession.getProxy().getRelay());
+        }
+        switchTo(mStream, selector.getBitrate());
+    }
+
+    // Stalls that ended with audio playing again, whether the proxy failed
+    //  over by itself or the watchdog restarted the stream.
+    public int getStallRecoveryCount() {
+        return mWatchdog.getRecoveryCount();
+    }
+
+    // Milliseconds spent silent while meant to be playing.
+    public long getSilentMillis() {
+        return mWatchdog.getSilentMillis(SystemClock.elapsedRealtime());
+    }
+
+    // Adaptive bitrate switch counts since the service started.
+    public int getBitrateUpSwitchCount() {
+        return mBitrateSelector.getUpSwitchCount();
+    }
+
+    public int getBitrateDownSwitchCount() {
+        return mBitrateSelector.getDownSwitchCount();
+    }
+
+    // The relay announced a new song so refresh now instead of waiting for
+    //  the next poll.
+    private void onStreamTitleChanged(PlayerSession session, String title) {
+        if (session != mSession) {
+            // A pending session's title gets picked up by the poll that
+            //  starts with it.
+            return;
+        }
+        if (DEBUG) {
+            Log.d(TAG, "In-band title changed: " + title);
+        }
+        mHandler.removeCallbacks(mUpdater);
+        mRecheckAfterTitle = true;
+        mPollScheduler.onTitleAnnounced();
+        mHandler.post(mUpdater);
+    }
+
+    private void releasePendingSession() {
+        if (mPendingSession != null) {
+            mPendingSession.release();
+            mPendingSession = null;
+        }
+    }
+
+    // Exposes buffer depth, watermarks and underrun counts of the current
+    //  stream. Returns null when not playing.
+    public StreamProxy getStreamProxy() {
+        return mSession == null ? null : mSession.getProxy();
+    }
+
+    // Milliseconds between asking for a stream and hearing it for the most
+    //  recent start or station change, or -1 if nothing has played yet.
+    public long getLastTimeToAudio() {
+        return mLastTimeToAudio;
+    }
+
+    // Pauses playback while the time-shift buffer keeps recording. Without
+    //  time-shifting there's nothing to resume from so this just stops.
+    public void pause() {
+        if (!isPlaying() || mState == PlayerState.PAUSED) {
+            return;
+        }
+        if (mState != PlayerState.PLAYING || !mSession.getProxy().isTimeShifting()
+                || mPendingSession != null) {
+            stop();
+            return;
+        }
+        mSession.pause();
+        setState(PlayerState.PAUSED);
+        for (PlaystateChangedListener listener : mListeners) {
+            listener.onPlaystateChanged(false);
+        }
+    }
+
+    // Carries on from where pause() left off.
+    public void resume() {
+        if (mState != PlayerState.PAUSED) {
+            return;
+        }
+        mSession.start();
+        setState(PlayerState.PLAYING);
+        startWatchdog();
+        for (PlaystateChangedListener listener : mListeners) {
+            listener.onPlaystateChanged(true);
+        }
+    }
+
+    public boolean isPaused() {
+        return mState == PlayerState.PAUSED;
+    }
+
+    // Jumps to the given number of milliseconds behind live within the
+    //  time-shift window. 0 returns to live.
+    public void seekBehindLive(long millis) {
+        if (mSession == null || mPendingSession != null) {
+            return;
+        }
+        try {
+            if (mSession.seekBehindLive(millis)) {
+                // The prepared listener moves us back to playing.
+                setState(PlayerState.PREPARING);
+                finishCrossfade();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while seeking in time-shift buffer", e);
+            stop();
+        }
     }
 
     // Used in this class as well as in the main activity to determine if we
-    //  are currently playing music.
+    //  are currently playing music. Also true while preparing or paused since
+    //  a player exists in those states.
     public boolean isPlaying() {
-        return mMediaPlayer != null /* && mMediaPlayer.isPlaying() */;
+        return mState == PlayerState.PREPARING || mState == PlayerState.PLAYING
+                || mState == PlayerState.PAUSED;
+    }
+
+    // What frontends show on their play buttons.
+    private boolean isAudible() {
+        return mState == PlayerState.PREPARING || mState == PlayerState.PLAYING;
+    }
+
+    public PlayerState getPlayerState() {
+        return mState;
     }
 
+    private void setState(PlayerState state) {
+        if (DEBUG) {
+            Log.d(TAG, mState + " -> " + state);
+        }
+        mState = state;
+    }
+
+    // Play, pause and station commands only record the intent and run
+    //  together once the burst settles, so rapid toggling from widgets never
+    //  builds players only to tear them down again.
+    private void queueCommand() {
+        mHandler.removeCallbacks(mCommandRunner);
+        mHandler.postDelayed(mCommandRunner, COMMAND_SETTLE_DELAY);
+    }
+
+    private final Runnable mCommandRunner = new Runnable() {
+        @Override
+        public void run() {
+            mCommands.apply(mCommandPlayer);
+        }
+    };
+
+    private final CommandCoalescer.Player mCommandPlayer = new CommandCoalescer.Player() {
+        @Override
+        public PlayerState getPlayerState() {
+            return mState;
+        }
+
+        @Override
+        public void changeStream(int streamId) {
+            if (STREAMS[streamId] != mStream) {
+                MusicService.this.changeStream(streamId);
+            }
+        }
+
+        @Override
+        public void play() {
+            MusicService.this.play();
+        }
+
+        @Override
+        public void pause() {
+            MusicService.this.pause();
+        }
+
+        @Override
+        public void resume() {
+            MusicService.this.resume();
+        }
+
+        @Override
+        public void stop() {
+            MusicService.this.stop();
+        }
+    };
+
     private void processCommand(int command, Intent intent) {
         switch (command) {
         case CMD_UPVOTE:
@@ -369,15 +952,19 @@ public class MusicService extends Service {
             toggleSave();
             break;
         case CMD_TOGGLE_PLAY:
-            if (isPlaying()) {
-                stop();
-            } else {
-                play("http://" + mStream.relays[0].server);
-            }
+            mCommands.togglePlay(mState);
+            queueCommand();
+            break;
+        case CMD_TOGGLE_PAUSE:
+            mCommands.togglePause(mState);
+            queueCommand();
+            break;
+        case CMD_SEEK:
+            seekBehindLive(intent.getLongExtra(KEY_SEEK_BEHIND_LIVE, 0));
             break;
         case CMD_CHANGE_STREAM:
-            int streamId = intent.getIntExtra("stream_id", 0);
-            changeStream(streamId);
+            mCommands.changeStream(intent.getIntExtra("stream_id", 0));
+            queueCommand();
             break;
         default:
             Log.e(TAG, "invalid command received");
@@ -391,9 +978,27 @@ public class MusicService extends Service {
         }
 
         // Set the current station and begin playback if already playing.
+        if (mStream != STREAMS[streamId]) {
+            // Song lengths differ between stations.
+            mPollScheduler.forgetLengths();
+            // Whatever the old station's refresh finds is no use now.
+            mMetadataPipeline.cancel();
+            if (mStream != null) {
+                mRedditInfoCache.dropPrefetched();
+            }
+        }
         mStream = STREAMS[streamId];
-        if (isPlaying()) {
-            play("http://" + mStream.relays[0].server);
+        final int bitrate = mBitrateSelector.selectInitial(mStream.getBitrates());
+        if (mState == PlayerState.PREPARING && mPendingSession == null) {
+            // Nothing audible to bridge the gap with, start over instead.
+            play();
+        } else if (isPlaying()) {
+            stopTimer();
+            switchTo(mStream, bitrate);
+        } else {
+            // Rank the relays now so the best one is known by the time the
+            //  user presses play.
+            getRelaySelector(mStream, bitrate).probeAsync();
         }
 
         // Save streamId for future reference.
@@ -406,6 +1011,18 @@ public class MusicService extends Service {
         //  OnSongInfoChanged successfully completes.
         updateNotification(getString(R.string.loading_notification), "", mStream.name);
 
+        // Show what the station was playing last we heard, if that's recent,
+        //  rather than filler until the first poll completes.
+        final StationStatus cached = mStationStatuses.getCached(streamId);
+        if (cached != null) {
+            // The recorder waits for the poll, the old station may still be
+            //  audible for a moment.
+            mSongInfo = cached.getCurrentSong(getString(R.string.info_filler));
+            final Intent songIntent = new Intent(ACTION_SONG_INFO_CHANGED);
+            songIntent.putExtra(KEY_SONG_INFO, mSongInfo);
+            mContext.sendBroadcast(songIntent);
+        }
+
         updateWidget();
 
         // Broadcast change to any widgets and/or activities.
@@ -420,7 +1037,18 @@ public class MusicService extends Service {
         if (DEBUG) {
             Log.d(TAG, "++OnSongChanged++");
         }
+        if (!isSameSong(mSongInfo, song)) {
+            mPollScheduler.onSongChanged();
+            if (mPolling) {
+                // The next poll was timed for the previous song.
+                mHandler.removeCallbacks(mUpdater);
+                mHandler.postDelayed(mUpdater, getNextPollDelay());
+            }
+        }
         mSongInfo = song;
+        if (mRecorder != null) {
+            mRecorder.startSong(getSongName(song));
+        }
 
         if (!isPlaying()) {
             return;
@@ -436,13 +1064,118 @@ public class MusicService extends Service {
         mContext.sendBroadcast(intent);
     }
 
+    private void startPushChannel() {
+        final String pushUrl = mPreferences.getString(PREF_PUSH_URL, null);
+        if (mPushChannel != null || pushUrl == null) {
+            return;
+        }
+        final String statusUrl = getStatusUrl();
+        mPushChannel = new NowPlayingChannel(pushUrl + mStream.status + "events",
+                new NowPlayingChannel.Listener() {
+            @Override
+            public void onConnected() {
+                mPushConnected = true;
+            }
+
+            @Override
+            public void onNowPlaying(StationStatus status) {
+                mMetadataPipeline.deliver(statusUrl, getCookie(), status);
+            }
+
+            @Override
+            public void onDisconnected() {
+                mPushConnected = false;
+                // Catch up on anything missed and go back to polling.
+                mHandler.removeCallbacks(mUpdater);
+                mHandler.post(mUpdater);
+            }
+        });
+        mPushChannel.start();
+    }
+
+    private void stopPushChannel() {
+        if (mPushChannel != null) {
+            mPushChannel.stop();
+            mPushChannel = null;
+            mPushConnected = false;
+        }
+    }
+
+    private static boolean isSameSong(AllSongInfo a, AllSongInfo b) {
+        return a != null && b != null && TextUtils.equals(a.title, b.title)
+                && TextUtils.equals(a.artist, b.artist);
+    }
+
+    // Asks for the latest song info without moving the poll schedule.
+    //  Shares a refresh already in flight rather than starting another.
+    public void refreshSongInfo() {
+        if (mPolling) {
+            mMetadataPipeline.refresh(getStatusUrl(), getCookie());
+        }
+    }
+
     private void startTimer() {
+        mHandler.removeCallbacks(mUpdater);
         mHandler.post(mUpdater);
+        mPolling = true;
+        startPushChannel();
     }
 
     private void stopTimer() {
         mHandler.removeCallbacks(mUpdater);
+        mMetadataPipeline.cancel();
+        stopPushChannel();
+        mPolling = false;
+        mPollScheduler.reset();
         clearSongInfo();
+        // The info is gone so the next poll must not be skipped as unchanged.
+        mStatusValidators.forget(getStatusUrl());
+    }
+
+    private String getStatusUrl() {
+        return getStatusUrl(mStream);
+    }
+
+    private static String getStatusUrl(Stream stream) {
+        return "http://www.radioreddit.com" + stream.status + "status.json";
+    }
+
+    // Refresh counts and how long each stage of a refresh takes.
+    public MetadataPipeline getMetadataPipeline() {
+        return mMetadataPipeline;
+    }
+
+    // Which reddit post belongs to each song.
+    public RedditIdIndex getRedditIdIndex() {
+        return mRedditIdIndex;
+    }
+
+    // What reddit said about recently played songs.
+    public RedditInfoCache getRedditInfoCache() {
+        return mRedditInfoCache;
+    }
+
+    // Latest status of every station, in the same order as STREAM_NAMES.
+    public StationStatusAggregator getStationStatuses() {
+        return mStationStatuses;
+    }
+
+    // Validators of the last status.json per station, along with how much
+    //  downloading and parsing they have saved.
+    public StatusValidatorCache getStatusValidators() {
+        return mStatusValidators;
+    }
+
+    // The on-disk HTTP cache with its hit, miss and revalidation counts.
+    public HttpResponseCache getHttpCache() {
+        return HttpTransport.get().getCache();
+    }
+
+    // Forgets the song's vote and save state wherever it's cached, so the
+    //  next refresh can't bring back what it was before.
+    private void invalidateRedditInfo(AllSongInfo song) {
+        mRedditInfoCache.invalidate(song.reddit_url);
+        GetSongInfo.evictCached(song);
     }
 
     private void toggleUpvote() {
@@ -451,6 +1184,9 @@ public class MusicService extends Service {
         } else if (!loggedIn()) {
             toast(R.string.not_logged_in);
         } else {
+            invalidateRedditInfo(mSongInfo);
+            // A refresh already in flight would put back the old vote.
+            mMetadataPipeline.cancel();
             AllSongInfo song = RedditApi.toggleUpvote(getModhash(), getCookie(), mSongInfo);
             onSongInfoChanged(song);
         }
@@ -462,6 +1198,8 @@ public class MusicService extends Service {
         } else if (!loggedIn()) {
             toast(R.string.not_logged_in);
         } else {
+            invalidateRedditInfo(mSongInfo);
+            mMetadataPipeline.cancel();
             AllSongInfo song = RedditApi.toggleDownvote(getModhash(), getCookie(), mSongInfo);
             onSongInfoChanged(song);
         }
@@ -473,6 +1211,8 @@ public class MusicService extends Service {
         } else if (!loggedIn()) {
             toast(R.string.not_logged_in);
         } else {
+            invalidateRedditInfo(mSongInfo);
+            mMetadataPipeline.cancel();
             AllSongInfo song = RedditApi.toggleSave(getModhash(), getCookie(), mSongInfo);
             onSongInfoChanged(song);
         }
@@ -498,7 +1238,7 @@ public class MusicService extends Service {
 
     public void registerPlaystateListener(PlaystateChangedListener listener) {
         mListeners.add(listener);
-        listener.onPlaystateChanged(isPlaying());
+        listener.onPlaystateChanged(isAudible());
     }
 
     public void unregisterPlaystateListener(PlaystateChangedListener listener) {
@@ -520,6 +1260,8 @@ public class MusicService extends Service {
         editor.putString(PREF_MODHASH, modhash);
         editor.putString(PREF_COOKIE, cookie);
         editor.commit();
+        // Cached votes and saves belonged to whoever was logged in before.
+        mRedditInfoCache.clear();
         toast(getString(R.string.now_logged_in_as) + " " + username);
     }
 
@@ -530,6 +1272,9 @@ public class MusicService extends Service {
             editor.remove(PREF_MODHASH);
             editor.remove(PREF_COOKIE);
             editor.commit();
+            mRedditInfoCache.clear();
+            // Anything in flight was fetched with the old cookie.
+            mMetadataPipeline.cancel();
 
             if (mSongInfo != null) {
                 mSongInfo.upvoted = false;
@@ -549,7 +1294,7 @@ public class MusicService extends Service {
         Bundle bundle = new Bundle();
         bundle.putParcelable(MusicService.KEY_SONG_INFO, mSongInfo);
         bundle.putString(MusicService.KEY_STREAM_NAME, mStream.name);
-        bundle.putBoolean(KEY_IS_PLAYING, isPlaying());
+        bundle.putBoolean(KEY_IS_PLAYING, isAudible());
         intent.putExtras(bundle);
         mContext.sendBroadcast(intent);
     }
@@ -634,6 +1379,10 @@ public class MusicService extends Service {
         mSongInfo.downvoted = false;
         mSongInfo.upvoted = false;
         mSongInfo.saved = false;
+        if (mRecorder != null) {
+            // Hold off recording until the next song is known.
+            mRecorder.startSong(null);
+        }
 
         updateWidget();
 
@@ -644,16 +1393,115 @@ public class MusicService extends Service {
     }
 
     // Used by the media player for acting when it is prepared.
-    // Should just start the music playback.
+    // Either starts playback or completes a pending station change.
     private final MediaPlayer.OnPreparedListener mPreparedListener =
             new MediaPlayer.OnPreparedListener() {
         @Override
         public void onPrepared(MediaPlayer mp) {
-            mp.start();
-            startTimer();
+            if (mPendingSession != null && mPendingSession.owns(mp)) {
+                handOff();
+                return;
+            }
+            if (mSession == null || !mSession.owns(mp)) {
+                // Prepared after being replaced or stopped.
+                return;
+            }
+            mSession.start();
+            setState(PlayerState.PLAYING);
+            onAudioStarted(mSession);
+            for (PlaystateChangedListener listener : mListeners) {
+                listener.onPlaystateChanged(true);
+            }
+        }
+    };
+
+    // A failing pending session is dropped and the current one carries on,
+    //  a failing current session stops playback.
+    private final MediaPlayer.OnErrorListener mErrorListener =
+            new MediaPlayer.OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+            Log.e(TAG, "MediaPlayer error " + what + ", " + extra);
+            if (mPendingSession != null && mPendingSession.owns(mp)) {
+                releasePendingSession();
+            } else if (mSession != null && mSession.owns(mp)) {
+                stop();
+                setState(PlayerState.ERROR);
+                toast(R.string.network_error);
+            }
+            // Returning true keeps MediaPlayer from also calling completion.
+            return true;
+        }
+    };
+
+    // The next station is ready so bring it in and retire the current one.
+    private void handOff() {
+        finishCrossfade();
+        final PlayerSession previous = mSession;
+        mSession = mPendingSession;
+        mPendingSession = null;
+        // Only the audible session feeds the recorder.
+        previous.getProxy().setRecorder(null);
+        mSession.getProxy().setRecorder(mRecorder);
+
+        mCrossfadeDuration = mPreferences.getInt(PREF_CROSSFADE, DEFAULT_CROSSFADE);
+        if (mCrossfadeDuration > 0) {
+            mSession.setVolume(0f);
+            mSession.start();
+            mFadingSession = previous;
+            mCrossfadeStart = SystemClock.elapsedRealtime();
+            mHandler.post(mCrossfader);
+        } else {
+            mSession.start();
+            previous.release();
+        }
+        onAudioStarted(mSession);
+        if (mState == PlayerState.PAUSED) {
+            // Changing station while paused starts the new one live.
+            setState(PlayerState.PLAYING);
             for (PlaystateChangedListener listener : mListeners) {
                 listener.onPlaystateChanged(true);
             }
         }
+    }
+
+    private void onAudioStarted(PlayerSession session) {
+        mLastTimeToAudio = session.getTimeToAudio();
+        if (DEBUG) {
+            Log.d(TAG, "Time to audio: " + mLastTimeToAudio + "ms");
+        }
+        startTimer();
+        mLastUnderruns = 0;
+        mHandler.removeCallbacks(mBitrateEvaluator);
+        mHandler.postDelayed(mBitrateEvaluator, BITRATE_EVALUATION_INTERVAL);
+        startWatchdog();
+    }
+
+    // Steps the volumes of the incoming and outgoing sessions until the
+    //  crossfade is complete.
+    private final Runnable mCrossfader = new Runnable() {
+        @Override
+        public void run() {
+            final long elapsed = SystemClock.elapsedRealtime() - mCrossfadeStart;
+            if (elapsed >= mCrossfadeDuration || mSession == null) {
+                finishCrossfade();
+                return;
+            }
+            final float progress = (float) elapsed / mCrossfadeDuration;
+            mSession.setVolume(progress);
+            mFadingSession.setVolume(1f - progress);
+            mHandler.postDelayed(mCrossfader, CROSSFADE_STEP);
+        }
     };
+
+    private void finishCrossfade() {
+        mHandler.removeCallbacks(mCrossfader);
+        if (mFadingSession != null) {
+            mFadingSession.release();
+            mFadingSession = null;
+        }
+        if (mSession != null) {
+            mSession.setVolume(1f);
+        }
+    }
 }
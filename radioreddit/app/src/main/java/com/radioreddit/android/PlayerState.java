@@ -0,0 +1,36 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android;
+
+/**
+ * Where the service's player is in its lifecycle. Only PLAYING and PAUSED
+ * have a started MediaPlayer, so stopping from any other state just releases.
+ */
+public enum PlayerState {
+    IDLE,
+    // Buffering and waiting for MediaPlayer to be prepared.
+    PREPARING,
+    PLAYING,
+    // Time-shifted playback held while the stream keeps recording.
+    PAUSED,
+    // Tearing down, commands wait until this has finished.
+    STOPPING,
+    // The player failed, behaves like IDLE for the next command.
+    ERROR
+}
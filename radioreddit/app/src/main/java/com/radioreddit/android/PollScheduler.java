@@ -0,0 +1,189 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android;
+
+/**
+ * Decides when to poll status.json next. Song lengths seen on the station
+ * are used to guess when the current song ends: polls are spread out in
+ * the middle of a song and bunched up around its expected end. The status
+ * doesn't say how long songs are, so until a couple of song changes have
+ * been seen it polls at the old fixed rate.
+ *
+ * Times come from an injectable clock so the policy can be driven without
+ * waiting for real songs to play.
+ */
+public class PollScheduler {
+    public interface Clock {
+        public long now();
+    }
+
+    // Used while there's nothing better to go on.
+    public static final long DEFAULT_INTERVAL = 15000;
+    // Polling rate around the expected end of a song.
+    private static final long NEAR_INTERVAL = 10000;
+    // Longest gap between polls in the middle of a song.
+    private static final long MAX_INTERVAL = 60000;
+    // How far either side of the expected end counts as near it.
+    private static final long NEAR_WINDOW = 20000;
+    // Polls are this much further apart while nobody is looking.
+    private static final int UNOBSERVED_FACTOR = 4;
+    private static final double SMOOTHING = 0.3;
+    // Songs remembered for the shortest recent length.
+    private static final int HISTORY = 8;
+
+    private final Clock mClock;
+    private final long[] mLengths = new long[HISTORY];
+    private int mLengthCount = 0;
+    private double mExpectedLength = 0;
+
+    private long mLastPoll = -1;
+    private long mPreviousPoll = -1;
+    // When the current song started, or -1 if we joined it part way.
+    private long mSongStart = -1;
+    // Exact start of a song announced in-band, waiting for the poll to
+    //  confirm it.
+    private long mAnnouncedStart = -1;
+    private boolean mObserved = true;
+
+    private final long mCreated;
+    private long mPolls = 0;
+    private long mTransitions = 0;
+    private long mTotalLag = 0;
+
+    public PollScheduler(Clock clock) {
+        mClock = clock;
+        mCreated = clock.now();
+    }
+
+    public void onPoll() {
+        mPreviousPoll = mLastPoll;
+        mLastPoll = mClock.now();
+        mPolls++;
+    }
+
+    // The relay announced a new title, so a song started just now.
+    public void onTitleAnnounced() {
+        mAnnouncedStart = mClock.now();
+    }
+
+    // A poll showed a different song than the one before it.
+    public void onSongChanged() {
+        final long now = mClock.now();
+        final long start;
+        if (mAnnouncedStart != -1) {
+            start = mAnnouncedStart;
+            mAnnouncedStart = -1;
+        } else if (mPreviousPoll != -1) {
+            // Somewhere between the last two polls, assume half way.
+            start = (mPreviousPoll + mLastPoll) / 2;
+        } else {
+            // The first song seen, we don't know when it started.
+            mSongStart = -1;
+            return;
+        }
+        if (mSongStart != -1) {
+            addLength(start - mSongStart);
+        }
+        mSongStart = start;
+        mTransitions++;
+        mTotalLag += now - start;
+    }
+
+    // Starting over, for example after changing station.
+    public void reset() {
+        mSongStart = -1;
+        mAnnouncedStart = -1;
+        mLastPoll = -1;
+        mPreviousPoll = -1;
+    }
+
+    public void forgetLengths() {
+        mLengthCount = 0;
+        mExpectedLength = 0;
+    }
+
+    // Whether anyone is looking at the song info, polls back off if not.
+    public void setObserved(boolean observed) {
+        mObserved = observed;
+    }
+
+    private void addLength(long length) {
+        if (length <= 0) {
+            return;
+        }
+        mLengths[mLengthCount % HISTORY] = length;
+        mExpectedLength = mLengthCount == 0 ? length
+                : SMOOTHING * length + (1 - SMOOTHING) * mExpectedLength;
+        mLengthCount++;
+    }
+
+    private long shortestLength() {
+        long shortest = Long.MAX_VALUE;
+        for (int i = 0; i < Math.min(mLengthCount, HISTORY); i++) {
+            shortest = Math.min(shortest, mLengths[i]);
+        }
+        return shortest;
+    }
+
+    // Milliseconds to wait before the next poll.
+    public long getNextDelay() {
+        final long delay = nextObservedDelay();
+        return mObserved ? delay : delay * UNOBSERVED_FACTOR;
+    }
+
+    private long nextObservedDelay() {
+        if (mSongStart == -1 || mLengthCount == 0) {
+            return DEFAULT_INTERVAL;
+        }
+        final long elapsed = mClock.now() - mSongStart;
+        final long expectedEnd = (long) mExpectedLength;
+        // Even the shortest songs seen lately haven't ended by now, so wait
+        //  until just before this one possibly could.
+        final long earliestEnd = Math.min(shortestLength(), expectedEnd);
+        if (elapsed < earliestEnd - NEAR_WINDOW) {
+            return Math.max(NEAR_INTERVAL,
+                    Math.min(MAX_INTERVAL, earliestEnd - NEAR_WINDOW - elapsed));
+        }
+        if (Math.abs(elapsed - expectedEnd) <= NEAR_WINDOW) {
+            return NEAR_INTERVAL;
+        }
+        if (elapsed < expectedEnd) {
+            // Could end any time but probably not quite yet.
+            return Math.max(NEAR_INTERVAL,
+                    Math.min(DEFAULT_INTERVAL, expectedEnd - NEAR_WINDOW - elapsed));
+        }
+        // Longer than usual, the guess is no use for this song.
+        return DEFAULT_INTERVAL;
+    }
+
+    // Milliseconds the current song is expected to last, 0 if unknown.
+    public long getExpectedLength() {
+        return (long) mExpectedLength;
+    }
+
+    public long getPollsPerHour() {
+        final long elapsed = Math.max(1, mClock.now() - mCreated);
+        return mPolls * 3600000 / elapsed;
+    }
+
+    // Average milliseconds between a song starting and a poll noticing it.
+    public long getAverageDetectionLag() {
+        return mTransitions == 0 ? 0 : mTotalLag / mTransitions;
+    }
+}
@@ -18,8 +18,6 @@
 
 package com.radioreddit.android.api;
 
-import android.net.ParseException;
-import android.os.AsyncTask;
 import android.util.Log;
 
 import com.radioreddit.android.AllSongInfo;
@@ -28,22 +26,23 @@ import com.radioreddit.android.MusicService;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 
-public class GetSongInfo extends AsyncTask<String, Integer, Boolean> {
+/**
+ * Second stage of a MetadataPipeline refresh. Fills in the vote and save
+ * state of the current song, from the cache when possible.
+ */
+public class GetSongInfo {
+    static final String INFO_URL = "http://www.reddit.com/api/info.json";
+
     private AllSongInfo mSong;
 
     private MusicService mService;
@@ -52,35 +51,88 @@ public class GetSongInfo extends AsyncTask<String, Integer, Boolean> {
         mSong = song;
     }
 
-    @Override
-    protected Boolean doInBackground(String... params) {
-        final String cookie = params[0]; // This will be null if not logged in.
+    // Drops the song's info from the HTTP cache, by id or URL and from
+    //  prefetched batches alike, after voting or saving changed it.
+    public static void evictCached(AllSongInfo song) {
+        final HttpResponseCache cache = HttpTransport.get().getCache();
+        if (cache == null) {
+            return;
+        }
+        if (song.reddit_id != null) {
+            cache.evictByQuery(INFO_URL, "id", song.reddit_id);
+        }
+        if (song.reddit_url != null) {
+            cache.evictByQuery(INFO_URL, "url", song.reddit_url);
+        }
+    }
+
+    // The cookie will be null if not logged in. Whatever couldn't be found
+    //  out is reset to defaults.
+    void fill(String cookie, MetadataPipeline.Refresh refresh) {
+        if (!lookUp(cookie, refresh)) {
+            // Set default values for stuff we couldn't get.
+            mSong.reddit_id = null;
+            mSong.upvoted = false;
+            mSong.downvoted = false;
+            mSong.votes = 0;
+            mSong.saved = false;
+        }
+    }
+
+    private boolean lookUp(String cookie, MetadataPipeline.Refresh refresh) {
+        // Polls during the same song mostly find it already cached.
+        final RedditInfoCache cache = mService.getRedditInfoCache();
+        if (cache.fill(mSong)) {
+            return true;
+        }
+
+        // Once a song's post is known it can be fetched by id, which is far
+        //  cheaper for reddit than searching by URL.
+        final RedditIdIndex index = mService.getRedditIdIndex();
+        final String url = mSong.reddit_url;
+        if (url != null && index.isKnownNotSubmitted(url)) {
+            return false;
+        }
+        final String knownId = url == null ? null : index.getId(url);
 
         // Prepare GET with cookie, execute it, parse response as JSON.
-        JSONObject response = null;
+        RedditListingParser response = null;
+        HttpGet httpGet = null;
+        HttpResponse httpResponse = null;
         try {
-            final HttpClient httpClient = new DefaultHttpClient();
             final List<NameValuePair> nameValuePairs = new ArrayList<>();
-            nameValuePairs.add(new BasicNameValuePair("url", mSong.reddit_url));
-            final HttpGet httpGet = new HttpGet("http://www.reddit.com/api/info.json?"
+            if (knownId != null) {
+                nameValuePairs.add(new BasicNameValuePair("id", knownId));
+            } else {
+                nameValuePairs.add(new BasicNameValuePair("url", url));
+            }
+            httpGet = new HttpGet(INFO_URL + "?"
                     + URLEncodedUtils.format(nameValuePairs, "utf-8"));
             if (cookie != null) {
                 // Using HttpContext, CookieStore, and friends didn't work.
                 httpGet.setHeader("Cookie", "reddit_session=" + cookie);
             }
             httpGet.setHeader("User-Agent", RedditApi.USER_AGENT);
-            final HttpResponse httpResponse = httpClient.execute(httpGet);
-            response = new JSONObject(EntityUtils.toString(httpResponse.getEntity()));
+            refresh.track(httpGet);
+            httpResponse = HttpTransport.get().execute(httpGet, RequestDeadline.REDDIT_INFO);
+            // Only the first post matters, parsing stops once it's read.
+            response = RedditListingParser.parse(new InputStreamReader(
+                    httpResponse.getEntity().getContent(), "UTF-8"), 1);
         } catch (UnsupportedEncodingException e) {
             Log.i(RedditApi.TAG, "UnsupportedEncodingException while getting song info", e);
         } catch (ClientProtocolException e) {
             Log.i(RedditApi.TAG, "ClientProtocolException while getting song info", e);
+        } catch (RequestTimeoutException e) {
+            Log.i(RedditApi.TAG, e.getMessage() + " while getting song info");
+            refresh.onTimeout(MetadataPipeline.STAGE_REDDIT_INFO);
         } catch (IOException e) {
             Log.i(RedditApi.TAG, "IOException while getting song info", e);
-        } catch (ParseException e) {
-            Log.i(RedditApi.TAG, "ParseException while getting song info", e);
-        } catch (JSONException e) {
-            Log.i(RedditApi.TAG, "JSONException while getting song info", e);
+        } finally {
+            if (response == null && httpGet != null) {
+                // Keeps a body that didn't parse out of the HTTP cache.
+                httpGet.abort();
+            }
+            HttpTransport.release(httpResponse);
         }
 
         // Check for failure.
@@ -90,68 +142,34 @@ public class GetSongInfo extends AsyncTask<String, Integer, Boolean> {
         }
 
         // Get the info we want.
-        final JSONObject data1 = response.optJSONObject("data");
-        if (data1 == null) {
-            Log.i(RedditApi.TAG, "First data is null");
-            return false;
-        }
-        final String modhash = data1.optString("modhash", "");
-        if (modhash.length() > 0) {
-            mService.setModhash(modhash);
-        }
-        final JSONArray children = data1.optJSONArray("children");
-        if (children == null) {
-            Log.i(RedditApi.TAG, "Children is null");
-            return false;
+        if (response.modhash != null && response.modhash.length() > 0) {
+            mService.setModhash(response.modhash);
         }
-        final JSONObject child = children.optJSONObject(0);
-        if (child == null) {
+        if (response.posts.isEmpty()) {
             // This is common if the song hasn't been submitted to reddit yet
             //  so we intentionally don't log this case.
+            if (knownId != null) {
+                // The post is gone, look it up by URL next time.
+                index.remove(url);
+            } else if (url != null) {
+                index.putNotSubmitted(url);
+            }
             return false;
         }
-        final String kind = child.optString("kind");
-        if (kind == null) {
-            Log.i(RedditApi.TAG, "Kind is null");
-            return false;
-        }
-        final JSONObject data2 = child.optJSONObject("data");
-        if (data2 == null) {
-            Log.i(RedditApi.TAG, "Second data is null");
-            return false;
-        }
-        final String id = data2.optString("id");
-        if (id == null) {
-            Log.i(RedditApi.TAG, "Id is null");
-            return false;
-        }
-        final int score = data2.optInt("score");
-        Boolean likes = null;
-        if (!data2.isNull("likes")) {
-            likes = data2.optBoolean("likes");
-        }
-        final boolean saved = data2.optBoolean("saved");
+        final RedditListingParser.Post post = response.posts.get(0);
 
         // Modify song with collected info.
-        mSong.reddit_id = kind + "_" + id;
-        mSong.upvoted = (likes != null && likes);
-        mSong.downvoted = (likes != null && !likes);
-        mSong.votes = score;
-        mSong.saved = saved;
-
-        return true;
-    }
+        mSong.reddit_id = post.fullname;
+        mSong.upvoted = (post.likes != null && post.likes);
+        mSong.downvoted = (post.likes != null && !post.likes);
+        mSong.votes = post.score;
+        mSong.saved = post.saved;
 
-    @Override
-    protected void onPostExecute(Boolean success) {
-        if (!success) {
-            // Set default values for stuff we couldn't get.
-            mSong.reddit_id = null;
-            mSong.upvoted = false;
-            mSong.downvoted = false;
-            mSong.votes = 0;
-            mSong.saved = false;
+        if (url != null) {
+            index.putId(url, mSong.reddit_id);
         }
-        mService.onSongInfoChanged(mSong);
+        cache.put(mSong);
+        cache.flush();
+        return true;
     }
 }
@@ -18,80 +18,124 @@
 
 package com.radioreddit.android.api;
 
-import android.os.AsyncTask;
+import android.os.Debug;
+import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.radioreddit.android.AllSongInfo;
 import com.radioreddit.android.MusicService;
-import com.radioreddit.android.R;
 
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
-public class GetStationStatus extends AsyncTask<String, Integer, StationStatus> {
-    private String mCookie;
+/**
+ * First stage of a MetadataPipeline refresh. Fetches a station's status.json,
+ * skipping the parse when it hasn't changed since the last poll.
+ */
+public class GetStationStatus {
+    private static final String TAG = "GetStationStatus";
+    // Returned when the status is the same as last poll, nothing to update.
+    static final StationStatus UNCHANGED = new StationStatus();
+    // Number of upcoming songs to fetch reddit info for ahead of time.
+    static final int LOOKAHEAD = 5;
 
     private MusicService mService;
-    public GetStationStatus(MusicService service, String cookie) {
+    public GetStationStatus(MusicService service) {
         mService = service;
-        mCookie = cookie;
     }
 
-    @Override
-    protected StationStatus doInBackground(String... params) {
-        InputStream source = InternetCommunication.retrieveStream(params[0]);
-
-        if (source == null) {
-            // No Internet connection.
+    // Returns null on failure and UNCHANGED if the status is the same as
+    //  last time.
+    StationStatus fetch(String url, MetadataPipeline.Refresh refresh) {
+        final StatusValidatorCache validators = mService.getStatusValidators();
+        final HttpGet request = new HttpGet(url);
+        refresh.track(request);
+        final StreamingResponse response;
+        try {
+            response = InternetCommunication.retrieveConditional(request,
+                    validators.getEtag(url), validators.getLastModified(url));
+        } catch (RequestTimeoutException e) {
+            Log.i(TAG, e.getMessage());
+            refresh.onTimeout(MetadataPipeline.STAGE_STATUS_FETCH);
             return null;
         }
 
-        Reader reader = new InputStreamReader(source);
-        Gson gson = new Gson();
-        // Wrap in try/catch in case there is a parse error.
-        try {
-            return gson.fromJson(reader, StationStatus.class);
-        } catch (JsonSyntaxException e) {
+        if (response == null) {
+            // No Internet connection, or cancelled.
             return null;
         }
-    }
 
-    @Override
-    protected void onPostExecute(StationStatus result) {
-        if (result == null) {
-            return;
+        if (response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            response.close();
+            validators.onNotModified(url);
+            mService.getStationStatuses().touch(url);
+            refresh.endStage(MetadataPipeline.STAGE_STATUS_FETCH);
+            return UNCHANGED;
         }
 
-        // XXX: Work-around for the talk stream. I guess it uses episodes instead?
-        SongInfo currentSong;
-        if (result.songs == null
-                || result.songs.song == null
-                || result.songs.song.isEmpty()
-                || result.songs.song.get(0) == null) {
-            final String filler = mService.getString(R.string.info_filler);
-            currentSong = new SongInfo();
-            currentSong.title = filler;
-            currentSong.artist = filler;
-            currentSong.genre = filler;
-            currentSong.redditor = filler;
-        } else {
-            currentSong = result.songs.song.get(0);
+        refresh.endStage(MetadataPipeline.STAGE_STATUS_FETCH);
+
+        // The body is parsed straight off the wire, inflated on the way if
+        //  need be. A server with validators answers 304 when nothing changed,
+        //  so a 200 from it has changed and parsing stops after the songs we
+        //  need. Without validators the whole body goes through a checksum
+        //  telling whether it changed.
+        final boolean checksummed = response.getHeader("ETag") == null
+                && response.getHeader("Last-Modified") == null;
+        final CRC32 checksum = new CRC32();
+        final StationStatus status;
+        final long length;
+        final long parseNanos;
+        try {
+            final long parseStart = Debug.threadCpuTimeNanos();
+            final CountingInputStream counted = new CountingInputStream(response.getBody());
+            final InputStream body = checksummed
+                    ? new CheckedInputStream(counted, checksum) : counted;
+            // The current song plus the ones to prefetch are all we need.
+            status = StationStatusParser.parse(
+                    new InputStreamReader(body, "UTF-8"), 1 + LOOKAHEAD);
+            if (checksummed) {
+                drain(body);
+            }
+            parseNanos = Debug.threadCpuTimeNanos() - parseStart;
+            // Read as close() would to reuse the connection, and counted for
+            //  the bytes a 304 saves next time.
+            drain(counted);
+            length = counted.getCount();
+        } catch (RequestTimeoutException e) {
+            Log.i(TAG, e.getMessage());
+            refresh.onTimeout(MetadataPipeline.STAGE_STATUS_PARSE);
+            response.abort();
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Bad status from " + url, e);
+            response.abort();
+            return null;
+        } finally {
+            response.close();
         }
 
-        // Copy the info we want to display to a new object.
-        final AllSongInfo song = new AllSongInfo();
-        song.title = currentSong.title;
-        song.artist = currentSong.artist;
-        song.genre = currentSong.genre;
-        song.redditor = currentSong.redditor;
-        song.playlist = result.playlist;
-        song.reddit_url = currentSong.reddit_url;
+        // Servers without validators still let us skip everything after the
+        //  parse.
+        if (checksummed && validators.isUnchanged(url, checksum.getValue(), length)) {
+            mService.getStationStatuses().touch(url);
+            return UNCHANGED;
+        }
+        validators.put(url, response.getHeader("ETag"),
+                response.getHeader("Last-Modified"), checksum.getValue(), length, parseNanos);
+        mService.getStationStatuses().put(url, status);
+        refresh.endStage(MetadataPipeline.STAGE_STATUS_PARSE);
+        return status;
+    }
 
-        // Not all the information we need is available yet. We need to make
-        //  a request to reddit to get vote/save info for this song before
-        //  sending back to the main activity.
-        new GetSongInfo(mService, song).execute(mCookie);
+    private static void drain(InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Nothing to do with it.
+        }
     }
 }
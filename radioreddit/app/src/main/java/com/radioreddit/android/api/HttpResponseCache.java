@@ -0,0 +1,963 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpParams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps GET responses on disk under HttpTransport, so a cold start or a flip
+ * to another station can be answered without waiting on the network.
+ *
+ * Responses stay fresh for as long as Cache-Control or Expires allow, or
+ * for a tenth of their age since Last-Modified when they say nothing. Once
+ * stale they're revalidated with a conditional request. Within a response's
+ * stale-while-revalidate window, or the one a caller asks for with
+ * setStaleWhileRevalidate(), the stale copy is served straight away and
+ * revalidated in the background instead. Callers that must never see a stale
+ * response say so with refuseStale().
+ *
+ * Each entry is one file, its metadata followed by the decoded body. The
+ * body is only written once it's been read to the end and the caller has
+ * released the response rather than aborting it, which is what callers do
+ * with a body that didn't parse. Entries are evicted
+ * least recently used first to stay within the byte budget. Freshness
+ * gained from a 304 isn't written back, after a restart such an entry is
+ * just revalidated once more. Evictions are queued without taking the lock,
+ * so they can be asked for on the main thread, and are applied before the
+ * next lookup.
+ */
+public class HttpResponseCache {
+    private static final String TAG = "HttpResponseCache";
+    private static final int VERSION = 1;
+    private static final String PARAM_STALE_WHILE_REVALIDATE =
+            "radioreddit.stale-while-revalidate";
+    private static final String PARAM_REFUSE_STALE = "radioreddit.refuse-stale";
+    // Responses without an explicit lifetime are never trusted for longer.
+    private static final long MAX_HEURISTIC_LIFETIME = 24 * 60 * 60 * 1000;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static class Eviction {
+        final String base;
+        final String name;
+        final String value;
+
+        Eviction(String base, String name, String value) {
+            this.base = base;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static class Entry {
+        final String key;
+        final File file;
+        String url;
+        String etag;
+        String lastModified;
+        String contentType;
+        long expiresAt;
+        // How long the server lets it be served stale while revalidating.
+        long staleWindow;
+        boolean noCache;
+        boolean mustRevalidate;
+        // Where the body starts in the file, and the size of the file.
+        long bodyOffset;
+        long size;
+        // Evictions made before the response arrived. One made since may
+        //  have been meant for it, so it isn't written.
+        long evictionsBefore;
+
+        Entry(String key, File file) {
+            this.key = key;
+            this.file = file;
+        }
+
+        boolean hasValidators() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final File mDir;
+    private final long mMaxBytes;
+    // In access order, the eldest is evicted first.
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashSet<String> mRevalidating = new HashSet<>();
+    private final ExecutorService mExecutor = new ThreadPoolExecutor(
+            1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    private boolean mLoaded = false;
+    private long mSize = 0;
+    // Asked for but not yet applied, see load().
+    private final ConcurrentLinkedQueue<Eviction> mPendingEvictions =
+            new ConcurrentLinkedQueue<>();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final Runnable mApplyEvictions = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (HttpResponseCache.this) {
+                load();
+            }
+        }
+    };
+
+    private long mHits = 0;
+    private long mStaleHits = 0;
+    private long mMisses = 0;
+    private long mRevalidations = 0;
+    private long mNotModified = 0;
+
+    public HttpResponseCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+    }
+
+    // Lets a stale response to the request be served while it's revalidated,
+    //  for up to the given time after it went stale. Servers can allow more.
+    public static void setStaleWhileRevalidate(HttpParams params, long millis) {
+        params.setLongParameter(PARAM_STALE_WHILE_REVALIDATE, millis);
+    }
+
+    // Never serves a stale response to the request, whatever the server
+    //  allows. It's revalidated or fetched again instead.
+    public static void refuseStale(HttpParams params) {
+        params.setBooleanParameter(PARAM_REFUSE_STALE, true);
+    }
+
+    // Drops every entry for a URL starting with base whose query has the
+    //  value among those of the named parameter, comma separated ones
+    //  included. For when what the server would say has just changed. Safe
+    //  on the main thread, the files are deleted in the background and no
+    //  lookup made after this returns can find the entries.
+    public void evictByQuery(String base, String name, String value) {
+        // Counted first so a response already on its way isn't written.
+        mEvictions.incrementAndGet();
+        mPendingEvictions.add(new Eviction(base, name, value));
+        try {
+            mExecutor.execute(mApplyEvictions);
+        } catch (RejectedExecutionException e) {
+            // Shut down, applied by whoever uses the cache next.
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    // Requests answered from disk, including stale ones.
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    // Hits served stale while being revalidated in the background.
+    public synchronized long getStaleHitCount() {
+        return mStaleHits;
+    }
+
+    // Requests that had nothing usable on disk.
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    // Conditional requests sent for stale entries.
+    public synchronized long getRevalidateCount() {
+        return mRevalidations;
+    }
+
+    // Revalidations the server answered with 304 Not Modified.
+    public synchronized long getNotModifiedCount() {
+        return mNotModified;
+    }
+
+    public synchronized float getHitRate() {
+        final long total = mHits + mMisses + mRevalidations;
+        return total == 0 ? 0 : (float) mHits / total;
+    }
+
+    public synchronized long getSize() {
+        load();
+        return mSize;
+    }
+
+    HttpResponse execute(HttpUriRequest request, RequestDeadline deadline,
+            HttpTransport transport) throws IOException {
+        if (!request.getMethod().equals("GET") || isNoCache(request)) {
+            return transport.executeNetwork(request, deadline);
+        }
+        final String key = keyFor(request);
+        final long now = System.currentTimeMillis();
+        final Entry entry;
+        final boolean fresh;
+        final boolean serveStale;
+        synchronized (this) {
+            load();
+            entry = mEntries.get(key);
+            fresh = entry != null && !entry.noCache && now < entry.expiresAt;
+            final boolean refuseStale = entry == null || entry.mustRevalidate
+                    || request.getParams().getBooleanParameter(PARAM_REFUSE_STALE, false);
+            final long window = refuseStale ? 0 : Math.max(
+                    entry.staleWindow,
+                    request.getParams().getLongParameter(PARAM_STALE_WHILE_REVALIDATE, 0));
+            serveStale = entry != null && !fresh && !entry.noCache
+                    && now < entry.expiresAt + window;
+        }
+
+        if (fresh || serveStale) {
+            final HttpResponse cached = serve(entry, request);
+            if (cached != null) {
+                synchronized (this) {
+                    mHits++;
+                    if (serveStale) {
+                        mStaleHits++;
+                    }
+                }
+                if (serveStale) {
+                    revalidateLater(entry, request, deadline, transport);
+                }
+                return cached;
+            }
+            // The file went missing, as good as never stored.
+        } else if (entry != null && entry.hasValidators()) {
+            return revalidate(key, entry, request, deadline, transport);
+        }
+        synchronized (this) {
+            mMisses++;
+        }
+        return onNetworkResponse(key, request, transport.executeNetwork(request, deadline), null);
+    }
+
+    // Asks the server whether the stale entry is still good, unless the
+    //  caller is already asking with validators of its own.
+    private HttpResponse revalidate(String key, Entry entry, HttpUriRequest request,
+            RequestDeadline deadline, HttpTransport transport) throws IOException {
+        final boolean ownValidators = !isConditional(request);
+        if (ownValidators) {
+            addValidators(request, entry);
+        }
+        synchronized (this) {
+            mRevalidations++;
+        }
+        final HttpResponse response = onNetworkResponse(key, request,
+                transport.executeNetwork(request, deadline), entry);
+        if (ownValidators) {
+            // The caller didn't ask for a 304 and mustn't get one.
+            removeValidators(request);
+        }
+        if (response != null) {
+            return response;
+        }
+        final HttpResponse cached = serve(entry, request);
+        if (cached != null) {
+            return cached;
+        }
+        // Gone in the meantime, fetch it again in full.
+        return onNetworkResponse(key, request, transport.executeNetwork(request, deadline), null);
+    }
+
+    // Stores what's cacheable. Returns null when the response was a 304 for
+    //  the given entry, which was refreshed and should be served instead.
+    private HttpResponse onNetworkResponse(String key, HttpUriRequest request,
+            HttpResponse response, Entry entry) {
+        final long now = System.currentTimeMillis();
+        final int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            if (entry == null || !validates(request, entry.etag, entry.lastModified)) {
+                return response;
+            }
+            synchronized (this) {
+                mNotModified++;
+                setFreshness(entry, response, now);
+            }
+            HttpTransport.release(response);
+            return null;
+        }
+        if (statusCode != HttpStatus.SC_OK) {
+            return response;
+        }
+        final HttpEntity body = response.getEntity();
+        if (body == null || !isStorable(response)) {
+            remove(key);
+            return response;
+        }
+        final Entry stored = new Entry(key, new File(mDir, key));
+        stored.url = request.getURI().toString();
+        synchronized (this) {
+            stored.evictionsBefore = mEvictions.get();
+        }
+        stored.etag = headerValue(response, "ETag");
+        stored.lastModified = headerValue(response, "Last-Modified");
+        final Header contentType = body.getContentType();
+        stored.contentType = contentType == null ? null : contentType.getValue();
+        // Kept even if already stale, callers may take it while revalidating.
+        setFreshness(stored, response, now);
+        response.setEntity(new StoringEntity(body, request, stored));
+        return response;
+    }
+
+    // Builds a response from the entry, or returns null if it's gone. A
+    //  caller revalidating its own copy of the entry gets a 304.
+    private HttpResponse serve(Entry entry, HttpUriRequest request) {
+        final String etag;
+        final String lastModified;
+        final String contentType;
+        final long bodyOffset;
+        final long size;
+        synchronized (this) {
+            // An eviction may have come in since the lookup.
+            load();
+            if (mEntries.get(entry.key) != entry) {
+                return null;
+            }
+            etag = entry.etag;
+            lastModified = entry.lastModified;
+            contentType = entry.contentType;
+            bodyOffset = entry.bodyOffset;
+            size = entry.size;
+        }
+        // Kept across restarts, see load().
+        entry.file.setLastModified(System.currentTimeMillis());
+
+        final boolean notModified = validates(request, etag, lastModified);
+        final BasicHttpResponse response = notModified
+                ? new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED,
+                        "Not Modified")
+                : new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        if (etag != null) {
+            response.setHeader("ETag", etag);
+        }
+        if (lastModified != null) {
+            response.setHeader("Last-Modified", lastModified);
+        }
+        if (notModified) {
+            return response;
+        }
+
+        final InputStream in;
+        try {
+            in = new FileInputStream(entry.file);
+            if (in.skip(bodyOffset) != bodyOffset) {
+                in.close();
+                throw new IOException("Truncated");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read " + entry.file, e);
+            remove(entry.key);
+            return null;
+        }
+        final InputStreamEntity body = new InputStreamEntity(in, size - bodyOffset);
+        if (contentType != null) {
+            body.setContentType(contentType);
+            response.setHeader("Content-Type", contentType);
+        }
+        response.setEntity(body);
+        return response;
+    }
+
+    // Fetches the entry again off the caller's thread, once at a time.
+    private void revalidateLater(final Entry entry, HttpUriRequest request,
+            final RequestDeadline deadline, final HttpTransport transport) {
+        synchronized (this) {
+            if (!mRevalidating.add(entry.key)) {
+                return;
+            }
+        }
+        final HttpGet revalidation = new HttpGet(request.getURI());
+        for (Header header : request.getAllHeaders()) {
+            if (!header.getName().startsWith("If-")) {
+                revalidation.addHeader(header);
+            }
+        }
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                HttpResponse response = null;
+                try {
+                    final boolean conditional = entry.hasValidators();
+                    if (conditional) {
+                        addValidators(revalidation, entry);
+                        synchronized (HttpResponseCache.this) {
+                            mRevalidations++;
+                        }
+                    }
+                    response = onNetworkResponse(entry.key, revalidation,
+                            transport.executeNetwork(revalidation, deadline),
+                            conditional ? entry : null);
+                    if (response != null) {
+                        // Changed. Nothing here parses the new body, so it's
+                        //  left to the next caller to fetch.
+                        if (response.getEntity() instanceof StoringEntity) {
+                            ((StoringEntity) response.getEntity()).discard();
+                        }
+                        remove(entry.key);
+                    }
+                } catch (IOException e) {
+                    Log.i(TAG, "Couldn't revalidate " + revalidation.getURI(), e);
+                } finally {
+                    HttpTransport.release(response);
+                    synchronized (HttpResponseCache.this) {
+                        mRevalidating.remove(entry.key);
+                    }
+                }
+            }
+        };
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shut down, whoever asks next after a restart revalidates.
+            synchronized (this) {
+                mRevalidating.remove(entry.key);
+            }
+        }
+    }
+
+    /**
+     * Copies the body aside as it's read and writes the entry out once it's
+     * consumed, unless the request was aborted first. A body left unread is
+     * read through when consumed, so callers stopping early still get it
+     * stored.
+     */
+    private class StoringEntity extends HttpEntityWrapper {
+        private final HttpUriRequest mRequest;
+        private final Entry mEntry;
+        private InputStream mContent;
+        private boolean mDiscarded = false;
+
+        StoringEntity(HttpEntity entity, HttpUriRequest request, Entry entry) {
+            super(entity);
+            mRequest = request;
+            mEntry = entry;
+        }
+
+        // Keeps the body from being stored.
+        void discard() {
+            mDiscarded = true;
+        }
+
+        // Always the same stream, the underlying one can only be read once.
+        @Override
+        public InputStream getContent() throws IOException {
+            if (mContent == null) {
+                mContent = new TeeStream(wrappedEntity.getContent());
+            }
+            return mContent;
+        }
+
+        @Override
+        public void consumeContent() throws IOException {
+            final boolean store = !mDiscarded && !mRequest.isAborted();
+            if (store && (mContent == null || ((TeeStream) mContent).isCopying())) {
+                try {
+                    drain(getContent());
+                } catch (IOException e) {
+                    // Not stored then, the connection is dealt with below.
+                }
+            }
+            if (store && !mRequest.isAborted()) {
+                final byte[] body = ((TeeStream) getContent()).takeBody();
+                if (body != null) {
+                    write(mEntry, body);
+                }
+            }
+            super.consumeContent();
+        }
+    }
+
+    private class TeeStream extends FilterInputStream {
+        private ByteArrayOutputStream mCopy = new ByteArrayOutputStream();
+        // The whole body, once the end was reached with nothing missed.
+        private byte[] mBody;
+
+        TeeStream(InputStream in) {
+            super(in);
+        }
+
+        byte[] takeBody() {
+            final byte[] body = mBody;
+            mBody = null;
+            return body;
+        }
+
+        boolean isCopying() {
+            return mCopy != null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b;
+            try {
+                b = in.read();
+            } catch (IOException e) {
+                mCopy = null;
+                throw e;
+            }
+            if (b == -1) {
+                onEnd();
+            } else if (mCopy != null) {
+                mCopy.write(b);
+                checkSize();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int read;
+            try {
+                read = in.read(buffer, offset, length);
+            } catch (IOException e) {
+                mCopy = null;
+                throw e;
+            }
+            if (read == -1) {
+                onEnd();
+            } else if (mCopy != null) {
+                mCopy.write(buffer, offset, read);
+                checkSize();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the copy.
+            mCopy = null;
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void checkSize() {
+            if (mCopy.size() > mMaxBytes / 4) {
+                // Would push out too much else.
+                mCopy = null;
+            }
+        }
+
+        private void onEnd() {
+            if (mCopy != null) {
+                mBody = mCopy.toByteArray();
+                mCopy = null;
+            }
+        }
+    }
+
+    private synchronized void write(Entry entry, byte[] body) {
+        load();
+        if (entry.evictionsBefore != mEvictions.get()) {
+            return;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            return;
+        }
+        final File temp = new File(entry.file.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            out.writeUTF(entry.url);
+            writeString(out, entry.etag);
+            writeString(out, entry.lastModified);
+            writeString(out, entry.contentType);
+            out.writeLong(entry.expiresAt);
+            out.writeLong(entry.staleWindow);
+            out.writeBoolean(entry.noCache);
+            out.writeBoolean(entry.mustRevalidate);
+            entry.bodyOffset = out.size();
+            out.write(body);
+            entry.size = out.size();
+            out.close();
+            out = null;
+            if (!temp.renameTo(entry.file)) {
+                return;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + entry.file, e);
+            return;
+        } finally {
+            closeQuietly(out);
+            temp.delete();
+        }
+        final Entry old = mEntries.put(entry.key, entry);
+        if (old != null) {
+            mSize -= old.size;
+        }
+        mSize += entry.size;
+        trim();
+    }
+
+    private synchronized void remove(String key) {
+        load();
+        final Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    private void trim() {
+        final Iterator<Entry> eldest = mEntries.values().iterator();
+        while (mSize > mMaxBytes && eldest.hasNext()) {
+            final Entry entry = eldest.next();
+            eldest.remove();
+            mSize -= entry.size;
+            entry.file.delete();
+        }
+    }
+
+    // Reads the entries in if that's still to be done and applies pending
+    //  evictions. Called with the lock held before every lookup.
+    private void load() {
+        if (!mLoaded) {
+            mLoaded = true;
+            readEntries();
+        }
+        Eviction eviction;
+        while ((eviction = mPendingEvictions.poll()) != null) {
+            final Iterator<Entry> entries = mEntries.values().iterator();
+            while (entries.hasNext()) {
+                final Entry entry = entries.next();
+                if (entry.url.startsWith(eviction.base)
+                        && queryHas(entry.url, eviction.name, eviction.value)) {
+                    entries.remove();
+                    mSize -= entry.size;
+                    entry.file.delete();
+                }
+            }
+        }
+    }
+
+    // Reads the metadata of every entry, least recently used first.
+    private void readEntries() {
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> sorted = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left by a crash halfway through writing.
+                file.delete();
+            } else {
+                sorted.add(file);
+            }
+        }
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File file : sorted) {
+            final Entry entry = readEntry(file);
+            if (entry == null) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(entry.key, entry);
+            mSize += entry.size;
+        }
+        trim();
+    }
+
+    private static Entry readEntry(File file) {
+        DataInputStream in = null;
+        try {
+            final CountingInputStream counted = new CountingInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            in = new DataInputStream(counted);
+            if (in.readInt() != VERSION) {
+                // Written by some other version.
+                return null;
+            }
+            final Entry entry = new Entry(file.getName(), file);
+            entry.url = in.readUTF();
+            entry.etag = readString(in);
+            entry.lastModified = readString(in);
+            entry.contentType = readString(in);
+            entry.expiresAt = in.readLong();
+            entry.staleWindow = in.readLong();
+            entry.noCache = in.readBoolean();
+            entry.mustRevalidate = in.readBoolean();
+            entry.bodyOffset = counted.getCount();
+            entry.size = file.length();
+            return entry;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring corrupt " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    // Works out when the entry goes stale from the response's headers, as
+    //  RFC 7234 describes for a private cache.
+    private static void setFreshness(Entry entry, HttpResponse response, long now) {
+        long lifetime = -1;
+        long staleWindow = 0;
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                switch (element.getName().toLowerCase(Locale.US)) {
+                case "no-cache":
+                    entry.noCache = true;
+                    break;
+                case "must-revalidate":
+                    entry.mustRevalidate = true;
+                    break;
+                case "max-age":
+                    lifetime = parseSeconds(element.getValue(), lifetime);
+                    break;
+                case "stale-while-revalidate":
+                    staleWindow = parseSeconds(element.getValue(), 0);
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        final long date = parseDate(headerValue(response, "Date"), now);
+        if (lifetime < 0) {
+            final long expires = parseDate(headerValue(response, "Expires"), -1);
+            final long lastModified = parseDate(entry.lastModified, -1);
+            if (response.containsHeader("Expires")) {
+                // An invalid date, like 0, means already expired.
+                lifetime = Math.max(0, expires - date);
+            } else if (lastModified >= 0 && lastModified < date) {
+                lifetime = Math.min((date - lastModified) / 10, MAX_HEURISTIC_LIFETIME);
+            } else {
+                lifetime = 0;
+            }
+        }
+        final long age = Math.max(0, now - date)
+                + parseSeconds(headerValue(response, "Age"), 0);
+        entry.expiresAt = now + lifetime - age;
+        entry.staleWindow = staleWindow;
+
+        final String etag = headerValue(response, "ETag");
+        if (etag != null) {
+            entry.etag = etag;
+        }
+    }
+
+    private static boolean queryHas(String url, String name, String value) {
+        final List<NameValuePair> query;
+        try {
+            query = URLEncodedUtils.parse(new URI(url), "UTF-8");
+        } catch (URISyntaxException e) {
+            return false;
+        }
+        for (NameValuePair pair : query) {
+            if (pair.getName().equals(name) && pair.getValue() != null
+                    && Arrays.asList(pair.getValue().split(",")).contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isStorable(HttpResponse response) {
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                if (element.getName().equalsIgnoreCase("no-store")) {
+                    return false;
+                }
+            }
+        }
+        // Every request asks for gzip, anything else varying isn't tracked.
+        for (Header header : response.getHeaders("Vary")) {
+            for (HeaderElement element : header.getElements()) {
+                if (!element.getName().equalsIgnoreCase("Accept-Encoding")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNoCache(HttpUriRequest request) {
+        for (Header header : request.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                final String name = element.getName();
+                if (name.equalsIgnoreCase("no-cache") || name.equalsIgnoreCase("no-store")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isConditional(HttpUriRequest request) {
+        return request.containsHeader("If-None-Match")
+                || request.containsHeader("If-Modified-Since");
+    }
+
+    // Whether the request's validators are the given ones.
+    private static boolean validates(HttpUriRequest request, String etag,
+            String lastModified) {
+        final String ifNoneMatch = headerValue(request, "If-None-Match");
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals(etag);
+        }
+        final String ifModifiedSince = headerValue(request, "If-Modified-Since");
+        return ifModifiedSince != null && ifModifiedSince.equals(lastModified);
+    }
+
+    private static void addValidators(HttpUriRequest request, Entry entry) {
+        if (entry.etag != null) {
+            request.setHeader("If-None-Match", entry.etag);
+        } else if (entry.lastModified != null) {
+            request.setHeader("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    private static void removeValidators(HttpUriRequest request) {
+        request.removeHeaders("If-None-Match");
+        request.removeHeaders("If-Modified-Since");
+    }
+
+    // The URL and login the response is for, as a file name.
+    private static String keyFor(HttpUriRequest request) {
+        final String cookie = headerValue(request, "Cookie");
+        final String key = request.getURI().toString() + (cookie == null ? "" : "\n" + cookie);
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java has MD5.
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            // And UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static String headerValue(HttpUriRequest request, String name) {
+        final Header header = request.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static long parseSeconds(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static long parseDate(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return DateUtils.parseDate(value).getTime();
+        } catch (DateParseException e) {
+            return fallback;
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Nothing to do with it.
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeUTF(value == null ? "" : value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final String value = in.readUTF();
+        return value.length() == 0 ? null : value;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.SystemClock;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.RequestAddCookies;
+import org.apache.http.client.protocol.ResponseProcessCookies;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one HttpClient all of the api package goes through. Connections are
+ * pooled per host and kept alive between requests, so a poll or a vote
+ * doesn't pay for DNS, TCP and TLS setup every time.
+ * It lives as long as the process, so it's never shut down from under a
+ * request still running.
+ *
+ * Responses are asked for gzipped and inflated on the fly as the body is
+ * read, so callers never see the encoding. Bytes on the wire and after
+ * inflating are counted per endpoint.
+ *
+ * Every request comes with a RequestDeadline. Running past any of its limits
+ * shows up as a RequestTimeoutException, from execute() or from reading the
+ * body. Callers can cancel a request from any thread by aborting it.
+ *
+ * With an HttpResponseCache set, GET requests are answered from disk when
+ * it can and responses are stored on their way through.
+ *
+ * Callers must hand every connection back, either by reading the body to
+ * the end, closing its stream, calling release() or aborting the request.
+ */
+public class HttpTransport {
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    // Idle connections are closed after this long. Servers drop them sooner
+    //  or later and a dead one costs a failed request to find out.
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    // Request latencies kept for the percentiles.
+    private static final int LATENCY_SAMPLES = 256;
+
+    // Bytes read for one endpoint, which is a host and path without the
+    //  query.
+    private static class ByteCounts {
+        long wire;
+        long decoded;
+    }
+
+    private static HttpTransport sInstance;
+
+    private final ThreadSafeClientConnManager mConnManager;
+    private final DefaultHttpClient mClient;
+    private volatile long mIdleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile HttpResponseCache mCache;
+    private long mLastEviction = 0;
+
+    private long mRequests = 0;
+    private long mConnectionsOpened = 0;
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+    private int mLatencyCount = 0;
+    private final HashMap<String, ByteCounts> mByteCounts = new HashMap<>();
+    private final long[] mTimeouts = new long[3];
+    // Aborts requests that run past their overall limit.
+    private final ScheduledExecutorService mDeadlineTimer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "HttpTransport deadlines");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static synchronized HttpTransport get() {
+        if (sInstance == null) {
+            sInstance = new HttpTransport();
+        }
+        return sInstance;
+    }
+
+    // Closes the pooled connections nobody is using. The client itself lives
+    //  as long as the process, LoginActivity and the Perform tasks may still
+    //  be using it after the service is gone.
+    public void closeIdleConnections() {
+        mConnManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+
+    // Everything shares get(), only tests build their own to measure one
+    //  from scratch.
+    HttpTransport() {
+        // What DefaultHttpClient would use if it built its own params. Without
+        //  TCP_NODELAY a reused connection waits out the server's delayed ACK.
+        final HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.DEFAULT_CONTENT_CHARSET);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpConnectionParams.setSocketBufferSize(params, 8192);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params,
+                new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        final SchemeRegistry schemes = new SchemeRegistry();
+        schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemes.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        mConnManager = new ThreadSafeClientConnManager(params, schemes) {
+            @Override
+            protected ClientConnectionOperator createConnectionOperator(
+                    SchemeRegistry registry) {
+                return new DefaultClientConnectionOperator(registry) {
+                    @Override
+                    public void openConnection(OperatedClientConnection conn, HttpHost target,
+                            InetAddress local, HttpContext context, HttpParams params)
+                            throws IOException {
+                        onConnectionOpened();
+                        super.openConnection(conn, target, local, context, params);
+                    }
+                };
+            }
+        };
+        mClient = new DefaultHttpClient(mConnManager, params);
+        // Keep alive as long as the server allows, but no longer than the
+        //  idle timeout.
+        mClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                final long duration = super.getKeepAliveDuration(response, context);
+                return duration < 0 ? mIdleTimeout : Math.min(duration, mIdleTimeout);
+            }
+        });
+        // Each request sets its own reddit_session cookie. A shared cookie
+        //  store would otherwise carry cookies from one request, or one
+        //  login, over to the next.
+        mClient.removeRequestInterceptorByClass(RequestAddCookies.class);
+        mClient.removeResponseInterceptorByClass(ResponseProcessCookies.class);
+
+        mClient.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (!request.containsHeader("Accept-Encoding")) {
+                    request.addHeader("Accept-Encoding", "gzip");
+                }
+            }
+        });
+    }
+
+    /**
+     * Inflates a gzipped body as it's read and counts the bytes either side.
+     */
+    private class DecodingEntity extends HttpEntityWrapper {
+        private final ByteCounts mCounts;
+        private final Deadline mDeadline;
+        private final boolean mGzipped;
+        private InputStream mContent;
+
+        DecodingEntity(HttpEntity entity, ByteCounts counts, Deadline deadline) {
+            super(entity);
+            mCounts = counts;
+            mDeadline = deadline;
+            final Header encoding = entity.getContentEncoding();
+            mGzipped = encoding != null && encoding.getValue().equalsIgnoreCase("gzip");
+        }
+
+        // Always the same stream, the underlying one can only be read once.
+        @Override
+        public InputStream getContent() throws IOException {
+            if (mContent == null) {
+                final InputStream wire = new WireStream(wrappedEntity.getContent());
+                if (!mGzipped) {
+                    mContent = wire;
+                } else {
+                    mContent = new CountingInputStream(new GZIPInputStream(wire)) {
+                        @Override
+                        protected void onRead(long bytes) {
+                            synchronized (HttpTransport.this) {
+                                mCounts.decoded += bytes;
+                            }
+                        }
+                    };
+                }
+            }
+            return mContent;
+        }
+
+        @Override
+        public void consumeContent() throws IOException {
+            mDeadline.cancel();
+            super.consumeContent();
+        }
+
+        @Override
+        public long getContentLength() {
+            return mGzipped ? -1 : super.getContentLength();
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return mGzipped ? null : super.getContentEncoding();
+        }
+
+        /**
+         * The body as it comes off the connection.
+         */
+        private class WireStream extends CountingInputStream {
+            WireStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            protected void onRead(long bytes) {
+                synchronized (HttpTransport.this) {
+                    mCounts.wire += bytes;
+                    if (!mGzipped) {
+                        mCounts.decoded += bytes;
+                    }
+                }
+            }
+
+            @Override
+            public int read() throws IOException {
+                try {
+                    return checkEnd(super.read());
+                } catch (IOException e) {
+                    throw mDeadline.translate(e);
+                }
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                try {
+                    return checkEnd(super.read(buffer, offset, length));
+                } catch (IOException e) {
+                    throw mDeadline.translate(e);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                mDeadline.cancel();
+                super.close();
+            }
+
+            private int checkEnd(int read) {
+                if (read == -1) {
+                    mDeadline.cancel();
+                }
+                return read;
+            }
+        }
+    }
+
+    private synchronized ByteCounts getCounts(HttpUriRequest request) {
+        final URI uri = request.getURI();
+        final String endpoint = uri.getHost() + uri.getPath();
+        ByteCounts counts = mByteCounts.get(endpoint);
+        if (counts == null) {
+            counts = new ByteCounts();
+            mByteCounts.put(endpoint, counts);
+        }
+        return counts;
+    }
+
+    public HttpResponse execute(HttpUriRequest request, RequestDeadline deadline)
+            throws IOException {
+        final HttpResponseCache cache = mCache;
+        if (cache == null) {
+            return executeNetwork(request, deadline);
+        }
+        return cache.execute(request, deadline, this);
+    }
+
+    // Like execute() but always goes to the network.
+    HttpResponse executeNetwork(HttpUriRequest request, RequestDeadline deadline)
+            throws IOException {
+        evictIdleConnections();
+        final HttpParams params = request.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, deadline.connectMillis);
+        HttpConnectionParams.setSoTimeout(params, deadline.readMillis);
+        // Waiting for a pooled connection counts as connecting.
+        ConnManagerParams.setTimeout(params, deadline.connectMillis);
+        final Deadline timer = new Deadline(request, deadline.totalMillis);
+
+        final long start = SystemClock.elapsedRealtime();
+        final HttpResponse response;
+        try {
+            response = mClient.execute(request);
+        } catch (IOException e) {
+            timer.cancel();
+            throw timer.translate(e);
+        }
+        onRequestDone(SystemClock.elapsedRealtime() - start);
+        // Only wrapped now, the client decides whether the connection can
+        //  be kept alive from the length of the body as it came.
+        final HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            response.setEntity(new DecodingEntity(entity, getCounts(request), timer));
+        } else {
+            timer.cancel();
+        }
+        return response;
+    }
+
+    /**
+     * The overall limit of one request. Once it fires the request is
+     * aborted and whatever that breaks is reported as a timeout.
+     */
+    private class Deadline implements Runnable {
+        private final HttpUriRequest mRequest;
+        private final ScheduledFuture<?> mFuture;
+        private volatile boolean mExpired = false;
+
+        Deadline(HttpUriRequest request, long totalMillis) {
+            mRequest = request;
+            mFuture = mDeadlineTimer.schedule(this, totalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            mExpired = true;
+            mRequest.abort();
+        }
+
+        void cancel() {
+            mFuture.cancel(false);
+        }
+
+        // Returns the timeout behind the failure, if there was one.
+        IOException translate(IOException e) {
+            final int limit;
+            if (e instanceof RequestTimeoutException) {
+                return e;
+            } else if (mExpired) {
+                limit = RequestTimeoutException.TOTAL;
+            } else if (e instanceof ConnectTimeoutException) {
+                limit = RequestTimeoutException.CONNECT;
+            } else if (e instanceof SocketTimeoutException) {
+                limit = RequestTimeoutException.READ;
+            } else {
+                return e;
+            }
+            onTimeout(limit);
+            final RequestTimeoutException timeout =
+                    new RequestTimeoutException(limit, mRequest.getURI().toString());
+            timeout.initCause(e);
+            return timeout;
+        }
+    }
+
+    // Hands the connection back to the pool. What's left of the body is read
+    //  first, for the small api responses that is far cheaper than opening a
+    //  new connection next time.
+    public static void release(HttpResponse response) {
+        if (response == null) {
+            return;
+        }
+        final HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            try {
+                entity.consumeContent();
+            } catch (IOException e) {
+                // The connection has been dropped instead.
+            }
+        }
+    }
+
+    public void setCache(HttpResponseCache cache) {
+        mCache = cache;
+    }
+
+    // Null when responses aren't cached.
+    public HttpResponseCache getCache() {
+        return mCache;
+    }
+
+    public void setIdleTimeout(long millis) {
+        mIdleTimeout = millis;
+    }
+
+    private void evictIdleConnections() {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            if (now - mLastEviction < mIdleTimeout / 2) {
+                return;
+            }
+            mLastEviction = now;
+        }
+        mConnManager.closeExpiredConnections();
+        mConnManager.closeIdleConnections(mIdleTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onConnectionOpened() {
+        mConnectionsOpened++;
+    }
+
+    private synchronized void onRequestDone(long millis) {
+        mRequests++;
+        mLatencies[mLatencyCount % LATENCY_SAMPLES] = millis;
+        mLatencyCount++;
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized long getConnectionsOpened() {
+        return mConnectionsOpened;
+    }
+
+    private synchronized void onTimeout(int limit) {
+        mTimeouts[limit]++;
+    }
+
+    // Requests that ran past the given RequestTimeoutException limit.
+    public synchronized long getTimeoutCount(int limit) {
+        return mTimeouts[limit];
+    }
+
+    public synchronized Set<String> getEndpoints() {
+        return new HashSet<>(mByteCounts.keySet());
+    }
+
+    // Bytes received for the endpoint as sent, compressed or not.
+    public synchronized long getWireBytes(String endpoint) {
+        final ByteCounts counts = mByteCounts.get(endpoint);
+        return counts == null ? 0 : counts.wire;
+    }
+
+    // Bytes handed to callers for the endpoint after inflating.
+    public synchronized long getDecodedBytes(String endpoint) {
+        final ByteCounts counts = mByteCounts.get(endpoint);
+        return counts == null ? 0 : counts.decoded;
+    }
+
+    // Fraction of requests that went out on an already open connection.
+    public synchronized float getReuseRate() {
+        if (mRequests == 0) {
+            return 0;
+        }
+        return Math.max(0, 1 - (float) mConnectionsOpened / mRequests);
+    }
+
+    // Milliseconds until the response headers arrived, at the given
+    //  percentile of recent requests.
+    public synchronized long getLatencyPercentile(int percentile) {
+        final int count = Math.min(mLatencyCount, LATENCY_SAMPLES);
+        if (count == 0) {
+            return 0;
+        }
+        final long[] sorted = new long[count];
+        System.arraycopy(mLatencies, 0, sorted, 0, count);
+        Arrays.sort(sorted);
+        return sorted[Math.min(count - 1, count * percentile / 100)];
+    }
+}
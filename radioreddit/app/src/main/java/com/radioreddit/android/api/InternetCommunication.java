@@ -20,41 +20,78 @@ package com.radioreddit.android.api;
 
 import android.util.Log;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 
 import java.io.IOException;
-import java.io.InputStream;
 
+/**
+ * Fetches from radioreddit.com. Responses are handed back as
+ * StreamingResponse, which the caller has to close.
+ */
 public class InternetCommunication {
-    public static InputStream retrieveStream(String url) {
-        DefaultHttpClient client = new DefaultHttpClient();
-
-        HttpGet getRequest = new HttpGet(url);
+    // For the station list a stale status is still better than nothing. By
+    //  this long after going stale the song has most likely changed.
+    private static final long STALE_WHILE_REVALIDATE = 5 * 60 * 1000;
 
+    // Returns the response when it is 200 and null otherwise.
+    public static StreamingResponse retrieve(String url) {
+        final HttpGet getRequest = new HttpGet(url);
+        HttpResponseCache.setStaleWhileRevalidate(getRequest.getParams(), STALE_WHILE_REVALIDATE);
         try {
+            final StreamingResponse getResponse = new StreamingResponse(getRequest,
+                    HttpTransport.get().execute(getRequest, RequestDeadline.STATUS));
+            final int statusCode = getResponse.getStatusCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                Log.w("InternetConnection", "Error " + statusCode + " for URL " + url);
+                getResponse.close();
+                return null;
+            }
+            return getResponse;
+        } catch (IOException e) {
+            getRequest.abort();
+            Log.w("InternetConnection", "Error for URL " + url, e);
+        }
+        return null;
+    }
 
-           HttpResponse getResponse = client.execute(getRequest);
-           final int statusCode = getResponse.getStatusLine().getStatusCode();
-
-           if (statusCode != HttpStatus.SC_OK) {
-              Log.w("InternetConnection",
-                  "Error " + statusCode + " for URL " + url);
-              return null;
-           }
-
-           HttpEntity getResponseEntity = getResponse.getEntity();
-           return getResponseEntity.getContent();
+    // Like retrieve but sends the validators of an earlier response, either
+    //  may be null. Returns the response when it is 200 or 304 Not Modified
+    //  and null otherwise. Taking the request lets the caller abort it from
+    //  another thread. Running out of time is told apart by throwing.
+    public static StreamingResponse retrieveConditional(
+            HttpGet getRequest, String etag, String lastModified)
+            throws RequestTimeoutException {
+        final String url = getRequest.getURI().toString();
+        if (etag != null) {
+            getRequest.setHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            getRequest.setHeader("If-Modified-Since", lastModified);
+        }
+        // What this returns drives the recorder and the poll schedule, it
+        //  has to be current.
+        HttpResponseCache.refuseStale(getRequest.getParams());
 
+        final StreamingResponse getResponse;
+        try {
+            getResponse = new StreamingResponse(getRequest,
+                    HttpTransport.get().execute(getRequest, RequestDeadline.STATUS));
+        } catch (RequestTimeoutException e) {
+            getRequest.abort();
+            throw e;
+        } catch (IOException e) {
+            getRequest.abort();
+            Log.w("InternetConnection", "Error for URL " + url, e);
+            return null;
         }
-        catch (IOException e) {
-           getRequest.abort();
-           Log.w("InternetConnection", "Error for URL " + url, e);
+        final int statusCode = getResponse.getStatusCode();
+        if (statusCode != HttpStatus.SC_OK && statusCode != HttpStatus.SC_NOT_MODIFIED) {
+            Log.w("InternetConnection", "Error " + statusCode + " for URL " + url);
+            getResponse.close();
+            return null;
         }
+        return getResponse;
+    }
 
-        return null;
-     }
 }
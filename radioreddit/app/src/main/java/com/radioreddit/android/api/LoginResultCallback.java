@@ -20,4 +20,6 @@ package com.radioreddit.android.api;
 
 public interface LoginResultCallback {
     public void onLoginResult(boolean success, String username, String modhash, String cookie);
+    // Called instead when reddit didn't answer in time.
+    public void onLoginTimedOut();
 }
@@ -0,0 +1,299 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.radioreddit.android.AllSongInfo;
+import com.radioreddit.android.MusicService;
+import com.radioreddit.android.R;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.List;
+
+/**
+ * Runs a metadata refresh from status.json through to the reddit info of the
+ * current song in one background task, so nothing bounces through the main
+ * thread between network hops.
+ *
+ * Every refresh carries the generation it was started in. Cancelling bumps
+ * the generation and aborts whatever request is in flight, and a result is
+ * only ever handed to the service if its generation is still current. That
+ * way a slow response for the old station can't overwrite the new one.
+ *
+ * Asking for a refresh while one for the same station and login is still in
+ * flight doesn't start another, the caller shares the one in flight.
+ *
+ * Only to be used from the main thread.
+ */
+public class MetadataPipeline {
+    private static final String TAG = "MetadataPipeline";
+
+    // Stages of a refresh, in the order they run.
+    public static final int STAGE_QUEUED = 0;
+    public static final int STAGE_STATUS_FETCH = 1;
+    public static final int STAGE_STATUS_PARSE = 2;
+    public static final int STAGE_REDDIT_INFO = 3;
+    public static final int STAGE_DELIVER = 4;
+    private static final String[] STAGE_NAMES = {
+        "queued", "status fetch", "status parse", "reddit info", "deliver"
+    };
+    private static final int STAGE_COUNT = STAGE_NAMES.length;
+
+    private final MusicService mService;
+    private int mGeneration = 0;
+    private Refresh mInFlight;
+
+    // Per stage latency of refreshes that were delivered, in milliseconds.
+    private final long[] mStageCounts = new long[STAGE_COUNT];
+    private final long[] mStageTotals = new long[STAGE_COUNT];
+    private final long[] mStageMaxima = new long[STAGE_COUNT];
+    private long mDelivered = 0;
+    private long mDiscarded = 0;
+    private long mRequested = 0;
+    private long mCoalesced = 0;
+    private final long[] mTimeouts = new long[STAGE_COUNT];
+
+    public MetadataPipeline(MusicService service) {
+        mService = service;
+    }
+
+    // Starts a refresh of the given status URL, unless the same one is
+    //  already in flight. One for another URL or login is superseded and its
+    //  result dropped.
+    public void refresh(String url, String cookie) {
+        mRequested++;
+        if (mInFlight != null && mInFlight.isFor(url, cookie)) {
+            mCoalesced++;
+            return;
+        }
+        cancel();
+        mInFlight = new Refresh(mGeneration, url, cookie,
+                mService.getString(R.string.info_filler), null);
+        mInFlight.execute();
+    }
+
+    // Runs the rest of the pipeline on a status that was pushed rather than
+    //  fetched. It's newer than anything in flight, which is superseded.
+    public void deliver(String url, String cookie, StationStatus status) {
+        cancel();
+        mService.getStationStatuses().put(url, status);
+        mInFlight = new Refresh(mGeneration, url, cookie,
+                mService.getString(R.string.info_filler), status);
+        mInFlight.execute();
+    }
+
+    // Makes sure nothing started so far reaches the service.
+    public void cancel() {
+        mGeneration++;
+        if (mInFlight != null) {
+            mInFlight.abort();
+            mInFlight = null;
+        }
+    }
+
+    public long getRequestedCount() {
+        return mRequested;
+    }
+
+    // Requests that joined a refresh already in flight.
+    public long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    // Fraction of requests that didn't need a fetch of their own.
+    public float getDedupHitRate() {
+        return mRequested == 0 ? 0 : (float) mCoalesced / mRequested;
+    }
+
+    public long getDeliveredCount() {
+        return mDelivered;
+    }
+
+    // Refreshes cancelled, superseded or finished after their generation.
+    public long getDiscardedCount() {
+        return mDiscarded;
+    }
+
+    // Mean milliseconds spent in the stage, over delivered refreshes that
+    //  got that far.
+    public long getMeanStageMillis(int stage) {
+        return mStageCounts[stage] == 0 ? 0 : mStageTotals[stage] / mStageCounts[stage];
+    }
+
+    public long getMaxStageMillis(int stage) {
+        return mStageMaxima[stage];
+    }
+
+    // Refreshes that gave up in the stage after running out of time.
+    public long getTimeoutCount(int stage) {
+        return mTimeouts[stage];
+    }
+
+    public String getLatencySummary() {
+        final StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(STAGE_NAMES[i]).append(' ')
+                    .append(getMeanStageMillis(i)).append("ms (max ")
+                    .append(getMaxStageMillis(i)).append("ms)");
+        }
+        return summary.toString();
+    }
+
+    private void record(Refresh refresh) {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            final long millis = refresh.mStageMillis[i];
+            if (millis < 0) {
+                continue;
+            }
+            mStageCounts[i]++;
+            mStageTotals[i] += millis;
+            mStageMaxima[i] = Math.max(mStageMaxima[i], millis);
+        }
+    }
+
+    /**
+     * One pass through the pipeline. The stages run in doInBackground and
+     * report their progress back through endStage() and track().
+     */
+    class Refresh extends AsyncTask<Void, Void, AllSongInfo> {
+        private final int mToken;
+        private final String mUrl;
+        private final String mCookie;
+        private final String mFiller;
+        private final long[] mStageMillis = new long[STAGE_COUNT];
+        private long mStageStart = SystemClock.elapsedRealtime();
+        private StationStatus mStatus;
+        private volatile int mTimedOutStage = -1;
+        // The request to abort if this refresh is cancelled.
+        private volatile HttpUriRequest mRequest;
+
+        // The status is null unless it was pushed, in which case it isn't
+        //  fetched again.
+        Refresh(int generation, String url, String cookie, String filler,
+                StationStatus status) {
+            mToken = generation;
+            mUrl = url;
+            mCookie = cookie;
+            mFiller = filler;
+            mStatus = status;
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                mStageMillis[i] = -1;
+            }
+        }
+
+        boolean isFor(String url, String cookie) {
+            return mUrl.equals(url) && TextUtils.equals(mCookie, cookie);
+        }
+
+        // Called by a stage as it finishes.
+        void endStage(int stage) {
+            final long now = SystemClock.elapsedRealtime();
+            mStageMillis[stage] = now - mStageStart;
+            mStageStart = now;
+        }
+
+        // Called by a stage before executing a request. Requests made after
+        //  cancelling are aborted straight away.
+        void track(HttpUriRequest request) {
+            mRequest = request;
+            if (isCancelled()) {
+                request.abort();
+            }
+        }
+
+        // Called by a stage that ran out of time. It's told apart from the
+        //  request failing outright.
+        void onTimeout(int stage) {
+            mTimedOutStage = stage;
+        }
+
+        void abort() {
+            cancel(false);
+            final HttpUriRequest request = mRequest;
+            if (request != null) {
+                request.abort();
+            }
+        }
+
+        @Override
+        protected AllSongInfo doInBackground(Void... params) {
+            endStage(STAGE_QUEUED);
+            if (mStatus == null) {
+                mStatus = new GetStationStatus(mService).fetch(mUrl, this);
+            }
+            if (mStatus == null || mStatus == GetStationStatus.UNCHANGED || isCancelled()) {
+                // Leave everything showing as is.
+                return null;
+            }
+
+            // Not all the information we need is available yet. We need to
+            //  make a request to reddit to get vote/save info for this song
+            //  before sending back to the main activity.
+            final AllSongInfo song = mStatus.getCurrentSong(mFiller);
+            new GetSongInfo(mService, song).fill(mCookie, this);
+            endStage(STAGE_REDDIT_INFO);
+            return isCancelled() ? null : song;
+        }
+
+        @Override
+        protected void onPostExecute(AllSongInfo song) {
+            if (mInFlight == this) {
+                mInFlight = null;
+            }
+            if (mToken != mGeneration) {
+                mDiscarded++;
+                return;
+            }
+            if (mTimedOutStage >= 0) {
+                mTimeouts[mTimedOutStage]++;
+            }
+            if (song == null) {
+                return;
+            }
+            endStage(STAGE_DELIVER);
+            record(this);
+            mDelivered++;
+            mService.onSongInfoChanged(song);
+            if (MusicService.DEBUG) {
+                Log.d(TAG, getLatencySummary() + ", " + mCoalesced + " of " + mRequested
+                        + " requests coalesced");
+            }
+
+            final List<String> upcoming =
+                    mStatus.getUpcomingRedditUrls(GetStationStatus.LOOKAHEAD);
+            if (!upcoming.isEmpty()) {
+                new PrefetchSongInfo(mService, mCookie).execute(
+                        upcoming.toArray(new String[upcoming.size()]));
+            }
+        }
+
+        @Override
+        protected void onCancelled() {
+            mDiscarded++;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.radioreddit.android.MusicService;
+import com.radioreddit.android.audio.Backoff;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+
+/**
+ * Listens for now-playing events pushed by the server as server-sent events,
+ * so song changes show up as they happen instead of at the next poll. Each
+ * now_playing event carries the station's status.json as its data.
+ *
+ * While the connection is down it is retried with backoff and the listener
+ * is told, so it can go back to polling until the channel returns.
+ */
+public class NowPlayingChannel {
+    private static final String TAG = "NowPlayingChannel";
+    private static final String EVENT_NOW_PLAYING = "now_playing";
+    private static final long RETRY_BASE_DELAY = 1000;
+    private static final long RETRY_MAX_DELAY = 60000;
+    private static final int CONNECT_TIMEOUT = 10000;
+    // Servers send a comment now and then to keep the connection open. One
+    //  that sends nothing at all for this long is assumed gone.
+    private static final int IDLE_TIMEOUT = 90000;
+
+    public interface Listener {
+        // All called on the thread that created the channel, never after
+        //  stop().
+        public void onConnected();
+        public void onNowPlaying(StationStatus status);
+        public void onDisconnected();
+    }
+
+    private final String mUrl;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+    private final Backoff mBackoff = new Backoff(RETRY_BASE_DELAY, RETRY_MAX_DELAY);
+    // Not HttpTransport, this connection stays open for as long as the
+    //  channel does and would only tie up one of the pooled ones.
+    private final DefaultHttpClient mClient;
+    private Thread mThread;
+    private volatile boolean mStopped = false;
+    private volatile HttpGet mRequest;
+
+    // Only touched by the channel's thread.
+    private boolean mConnected = false;
+    private String mLastEventId;
+    private long mServerRetryDelay = -1;
+    private int mEvents = 0;
+    private int mReconnects = 0;
+
+    public NowPlayingChannel(String url, Listener listener) {
+        mUrl = url;
+        mListener = listener;
+        final HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT);
+        HttpConnectionParams.setSoTimeout(params, IDLE_TIMEOUT);
+        mClient = new DefaultHttpClient(params);
+    }
+
+    public void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    public void stop() {
+        mStopped = true;
+        final HttpGet request = mRequest;
+        if (request != null) {
+            request.abort();
+        }
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+        mClient.getConnectionManager().shutdown();
+    }
+
+    private void runLoop() {
+        while (!mStopped) {
+            try {
+                listen();
+            } catch (IOException e) {
+                if (!mStopped) {
+                    Log.i(TAG, "Push channel lost", e);
+                }
+            }
+            if (mStopped) {
+                break;
+            }
+            long delay = mBackoff.nextDelay();
+            if (mConnected) {
+                mConnected = false;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mListener.onDisconnected();
+                    }
+                });
+                // A server that says when to come back knows best, as long
+                //  as it was reachable at all.
+                if (mServerRetryDelay >= 0) {
+                    delay = mServerRetryDelay;
+                }
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            mReconnects++;
+        }
+    }
+
+    // Reads events until the stream ends.
+    private void listen() throws IOException {
+        final HttpGet request = new HttpGet(mUrl);
+        request.setHeader("Accept", "text/event-stream");
+        request.setHeader("Cache-Control", "no-cache");
+        request.setHeader("User-Agent", RedditApi.USER_AGENT);
+        if (mLastEventId != null) {
+            // Lets the server replay anything missed while disconnected.
+            request.setHeader("Last-Event-ID", mLastEventId);
+        }
+        mRequest = request;
+        if (mStopped) {
+            return;
+        }
+
+        final HttpResponse response = mClient.execute(request);
+        try {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                Log.w(TAG, "Error " + statusCode + " for URL " + mUrl);
+                return;
+            }
+            mConnected = true;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onConnected();
+                }
+            });
+            mBackoff.reset();
+            if (MusicService.DEBUG) {
+                Log.d(TAG, "Connected after " + mReconnects + " reconnects, "
+                        + mEvents + " events so far");
+            }
+            readEvents(new BufferedReader(new InputStreamReader(
+                    response.getEntity().getContent(), "UTF-8")));
+        } finally {
+            request.abort();
+        }
+    }
+
+    private void readEvents(BufferedReader reader) throws IOException {
+        final StringBuilder data = new StringBuilder();
+        String event = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0) {
+                // A blank line ends the event.
+                if (data.length() > 0) {
+                    dispatch(event == null ? "message" : event, data.toString());
+                }
+                data.setLength(0);
+                event = null;
+                continue;
+            }
+            if (line.startsWith(":")) {
+                // A comment, only there to keep the connection alive.
+                continue;
+            }
+            final int colon = line.indexOf(':');
+            final String field = colon < 0 ? line : line.substring(0, colon);
+            String value = colon < 0 ? "" : line.substring(colon + 1);
+            if (value.startsWith(" ")) {
+                value = value.substring(1);
+            }
+            switch (field) {
+            case "event":
+                event = value;
+                break;
+            case "data":
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
+                break;
+            case "id":
+                mLastEventId = value;
+                break;
+            case "retry":
+                try {
+                    mServerRetryDelay = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    // Ignored, as the spec says.
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    private void dispatch(String event, String data) {
+        if (!event.equals(EVENT_NOW_PLAYING)) {
+            return;
+        }
+        final StationStatus status;
+        try {
+            status = StationStatusParser.parse(
+                    new StringReader(data), 1 + GetStationStatus.LOOKAHEAD);
+        } catch (IOException e) {
+            Log.w(TAG, "Bad now_playing event", e);
+            return;
+        }
+        mEvents++;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onNowPlaying(status);
+            }
+        });
+    }
+
+    // Hands a callback to the creating thread unless stopped by then.
+    private void post(final Runnable callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mStopped) {
+                    callback.run();
+                }
+            }
+        });
+    }
+}
@@ -27,10 +27,8 @@ import com.radioreddit.android.MusicService;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
@@ -46,6 +44,7 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
     private String mUser;
     private String mModhash;
     private String mCookie;
+    private boolean mTimedOut = false;
     private LoginResultCallback mCallback;
 
     public PerformLogin(LoginResultCallback callback) {
@@ -63,8 +62,8 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
 
         // Prepare POST, execute it, parse response as JSON.
         JSONObject response;
+        HttpResponse httpResponse = null;
         try {
-            final HttpClient httpClient = new DefaultHttpClient();
             final HttpPost httpPost = new HttpPost("https://ssl.reddit.com/api/login");
             final List<NameValuePair> nameValuePairs = new ArrayList<>();
             nameValuePairs.add(new BasicNameValuePair("user", username));
@@ -72,7 +71,7 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
             nameValuePairs.add(new BasicNameValuePair("api_type", "json"));
             httpPost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
             httpPost.setHeader("User-Agent", RedditApi.USER_AGENT);
-            final HttpResponse httpResponse = httpClient.execute(httpPost);
+            httpResponse = HttpTransport.get().execute(httpPost, RequestDeadline.LOGIN);
             final String responseBody = EntityUtils.toString(httpResponse.getEntity());
             if (MusicService.DEBUG) {
                 Log.i(RedditApi.TAG, "Reddit API login response: " + responseBody);
@@ -85,6 +84,10 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
         } catch (ClientProtocolException e) {
             Log.i(RedditApi.TAG, "ClientProtocolException while performing login", e);
             return false;
+        } catch (RequestTimeoutException e) {
+            Log.i(RedditApi.TAG, e.getMessage() + " while performing login");
+            mTimedOut = true;
+            return false;
         } catch (IOException e) {
             Log.i(RedditApi.TAG, "IOException while performing login", e);
             return false;
@@ -94,6 +97,8 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
         } catch (JSONException e) {
             Log.i(RedditApi.TAG, "JSONException while performing login", e);
             return false;
+        } finally {
+            HttpTransport.release(httpResponse);
         }
 
         // Check for failure.
@@ -130,7 +135,9 @@ public class PerformLogin extends AsyncTask<String, Integer, Boolean> {
 
     @Override
     protected void onPostExecute(Boolean success) {
-        if (success) {
+        if (mTimedOut) {
+            mCallback.onLoginTimedOut();
+        } else if (success) {
             mCallback.onLoginResult(true, mUser, mModhash, mCookie);
         } else {
             mCallback.onLoginResult(false, null, null, null);
@@ -24,10 +24,8 @@ import android.util.Log;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
 
 import java.io.IOException;
@@ -45,7 +43,6 @@ public class PerformSave extends AsyncTask<String, Integer, Void> {
 
         // Prepare POST with cookie and execute it.
         try {
-            final HttpClient httpClient = new DefaultHttpClient();
             final HttpPost httpPost = new HttpPost("http://www.reddit.com/api/" + type);
             final List<NameValuePair> nameValuePairs = new ArrayList<>();
             nameValuePairs.add(new BasicNameValuePair("id", id));
@@ -54,12 +51,15 @@ public class PerformSave extends AsyncTask<String, Integer, Void> {
             // Using HttpContext, CookieStore, and friends didn't work.
             httpPost.setHeader("Cookie", "reddit_session=" + cookie);
             httpPost.setHeader("User-Agent", RedditApi.USER_AGENT);
-            httpClient.execute(httpPost);
+            HttpTransport.release(HttpTransport.get().execute(httpPost,
+                    RequestDeadline.REDDIT_ACTION));
             // We just assume that everything worked so there's no need to check the response.
         } catch (UnsupportedEncodingException e) {
             Log.i(RedditApi.TAG, "UnsupportedEncodingException while performing vote", e);
         } catch (ClientProtocolException e) {
             Log.i(RedditApi.TAG, "ClientProtocolException while performing vote", e);
+        } catch (RequestTimeoutException e) {
+            Log.i(RedditApi.TAG, e.getMessage() + " while performing save");
         } catch (IOException e) {
             Log.i(RedditApi.TAG, "IOException while performing vote", e);
         } catch (ParseException e) {
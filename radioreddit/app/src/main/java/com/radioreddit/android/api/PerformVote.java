@@ -24,15 +24,13 @@ import android.util.Log;
 
 import com.radioreddit.android.MusicService;
 
+import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
@@ -55,7 +53,6 @@ public class PerformVote extends AsyncTask<String, Integer, Void> {
 
         // Prepare POST with cookie and execute it.
         try {
-            final HttpClient httpClient = new DefaultHttpClient();
             final HttpPost httpPost = new HttpPost("http://www.reddit.com/api/vote");
             final List<NameValuePair> nameValuePairs = new ArrayList<>();
             nameValuePairs.add(new BasicNameValuePair("id", id));
@@ -65,20 +62,21 @@ public class PerformVote extends AsyncTask<String, Integer, Void> {
             // Using HttpContext, CookieStore, and friends didn't work.
             httpPost.setHeader("Cookie", String.format("reddit_session=\"%s\"", cookie));
             httpPost.setHeader("User-Agent", RedditApi.USER_AGENT);
+            final HttpResponse response = HttpTransport.get().execute(httpPost, RequestDeadline.REDDIT_ACTION);
             if (MusicService.DEBUG) {
                 // Do some extra work when debugging to print the response.
-                final ResponseHandler<String> responseHandler = new BasicResponseHandler();
-                final String response = httpClient.execute(httpPost, responseHandler);
-                Log.i(RedditApi.TAG, "Reddit vote response: " + response);
-            } else {
-                // Otherwise just assume everything works out for now.
-                // TODO: Check for error responses and inform user of the problem.
-                httpClient.execute(httpPost);
+                Log.i(RedditApi.TAG, "Reddit vote response: "
+                        + EntityUtils.toString(response.getEntity()));
             }
+            // Otherwise just assume everything works out for now.
+            // TODO: Check for error responses and inform user of the problem.
+            HttpTransport.release(response);
         } catch (UnsupportedEncodingException e) {
             Log.i(RedditApi.TAG, "UnsupportedEncodingException while performing vote", e);
         } catch (ClientProtocolException e) {
             Log.i(RedditApi.TAG, "ClientProtocolException while performing vote", e);
+        } catch (RequestTimeoutException e) {
+            Log.i(RedditApi.TAG, e.getMessage() + " while performing vote");
         } catch (IOException e) {
             Log.i(RedditApi.TAG, "IOException while performing vote", e);
         } catch (ParseException e) {
@@ -0,0 +1,122 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.AsyncTask;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.radioreddit.android.AllSongInfo;
+import com.radioreddit.android.MusicService;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Fetches the vote and save state of songs coming up on the station in a
+ * single request, so it is already cached when they start playing. Only
+ * songs whose reddit id is known can be batched this way, others are looked
+ * up by GetSongInfo when they play.
+ */
+public class PrefetchSongInfo extends AsyncTask<String, Integer, Integer> {
+    private String mCookie;
+
+    private MusicService mService;
+    public PrefetchSongInfo(MusicService service, String cookie) {
+        mService = service;
+        mCookie = cookie;
+    }
+
+    // Takes the reddit_urls of the upcoming songs, returns how many were
+    //  prefetched.
+    @Override
+    protected Integer doInBackground(String... params) {
+        final RedditInfoCache cache = mService.getRedditInfoCache();
+        final RedditIdIndex index = mService.getRedditIdIndex();
+        // Taken before asking reddit so a station change or login while the
+        //  request is out discards what it brings back.
+        final int generation = cache.getGeneration();
+        final HashMap<String, String> urlsById = new HashMap<>();
+        for (String url : params) {
+            final String id = index.getId(url);
+            if (id != null && !cache.contains(url)) {
+                urlsById.put(id, url);
+            }
+        }
+        if (urlsById.isEmpty()) {
+            return 0;
+        }
+
+        RedditListingParser response = null;
+        HttpGet httpGet = null;
+        HttpResponse httpResponse = null;
+        try {
+            httpGet = new HttpGet(GetSongInfo.INFO_URL + "?id="
+                    + TextUtils.join(",", urlsById.keySet()));
+            if (mCookie != null) {
+                httpGet.setHeader("Cookie", "reddit_session=" + mCookie);
+            }
+            httpGet.setHeader("User-Agent", RedditApi.USER_AGENT);
+            httpResponse = HttpTransport.get().execute(httpGet, RequestDeadline.REDDIT_INFO);
+            response = RedditListingParser.parse(new InputStreamReader(
+                    httpResponse.getEntity().getContent(), "UTF-8"), urlsById.size());
+        } catch (RequestTimeoutException e) {
+            // Nothing lost, the songs are looked up again when they play.
+            Log.i(RedditApi.TAG, e.getMessage() + " while prefetching song info");
+        } catch (IOException e) {
+            Log.i(RedditApi.TAG, "IOException while prefetching song info", e);
+        } finally {
+            if (response == null && httpGet != null) {
+                // Keeps a body that didn't parse out of the HTTP cache.
+                httpGet.abort();
+            }
+            HttpTransport.release(httpResponse);
+        }
+        if (response == null) {
+            return 0;
+        }
+
+        final List<AllSongInfo> songs = new ArrayList<>();
+        for (RedditListingParser.Post post : response.posts) {
+            final String url = urlsById.get(post.fullname);
+            if (url == null) {
+                continue;
+            }
+            final AllSongInfo song = new AllSongInfo();
+            song.reddit_url = url;
+            song.reddit_id = post.fullname;
+            song.votes = post.score;
+            song.upvoted = (post.likes != null && post.likes);
+            song.downvoted = (post.likes != null && !post.likes);
+            song.saved = post.saved;
+            songs.add(song);
+        }
+        if (!cache.putPrefetched(songs, generation)) {
+            return 0;
+        }
+        cache.flush();
+        return songs.size();
+    }
+}
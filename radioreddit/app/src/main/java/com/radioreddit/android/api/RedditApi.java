@@ -19,7 +19,6 @@
 package com.radioreddit.android.api;
 
 import com.radioreddit.android.AllSongInfo;
-import com.radioreddit.android.MusicService;
 
 public class RedditApi {
     public static final String TAG = "RedditApi";
@@ -37,10 +36,6 @@ public class RedditApi {
         new PerformLogin(callback).execute(username, password);
     }
 
-    public static void requestSongInfo(MusicService service, String cookie, String url) {
-        new GetStationStatus(service, cookie).execute(url);
-    }
-
     public static AllSongInfo toggleUpvote(String modhash, String cookie, AllSongInfo info) {
         if (info.downvoted) {
             info.downvoted = false;
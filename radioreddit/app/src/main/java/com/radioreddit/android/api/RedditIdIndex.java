@@ -0,0 +1,238 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Remembers which reddit post each song's reddit_url belongs to. Once a
+ * song has been submitted that never changes, so after the first lookup by
+ * URL the post can be fetched by id instead. Songs that weren't submitted
+ * are remembered too, for a while, so they aren't looked up on every poll.
+ *
+ * The index is an append-only file of small binary records, later records
+ * winning, which is rewritten when it gets much bigger than its contents.
+ */
+public class RedditIdIndex {
+    private static final String TAG = "RedditIdIndex";
+    // A song may get submitted eventually, so negative entries expire.
+    private static final long NEGATIVE_TTL = 24 * 60 * 60 * 1000;
+    private static final int VERSION = 1;
+    private static final byte RECORD_ID = 1;
+    private static final byte RECORD_NOT_SUBMITTED = 0;
+    private static final String NOT_SUBMITTED = "";
+
+    // Maps URLs to reddit ids, or to NOT_SUBMITTED.
+    private final HashMap<String, String> mIds = new HashMap<>();
+    private final HashMap<String, Long> mNotSubmittedAt = new HashMap<>();
+
+    private final File mFile;
+    private boolean mLoaded = false;
+    private int mRecords = 0;
+
+    public RedditIdIndex(File file) {
+        mFile = file;
+    }
+
+    // The reddit id of the song's post, or null if unknown or not submitted.
+    public synchronized String getId(String redditUrl) {
+        load();
+        final String id = mIds.get(redditUrl);
+        return id == null || id.equals(NOT_SUBMITTED) ? null : id;
+    }
+
+    // Whether the song was recently found not to have been submitted.
+    public synchronized boolean isKnownNotSubmitted(String redditUrl) {
+        load();
+        final Long at = mNotSubmittedAt.get(redditUrl);
+        return at != null && System.currentTimeMillis() - at <= NEGATIVE_TTL;
+    }
+
+    public synchronized void putId(String redditUrl, String redditId) {
+        load();
+        if (redditId.equals(mIds.get(redditUrl))) {
+            return;
+        }
+        mIds.put(redditUrl, redditId);
+        mNotSubmittedAt.remove(redditUrl);
+        append(RECORD_ID, redditUrl, redditId, 0);
+    }
+
+    public synchronized void putNotSubmitted(String redditUrl) {
+        load();
+        final long now = System.currentTimeMillis();
+        mIds.put(redditUrl, NOT_SUBMITTED);
+        mNotSubmittedAt.put(redditUrl, now);
+        append(RECORD_NOT_SUBMITTED, redditUrl, null, now);
+    }
+
+    // Forgets a post id that reddit no longer knows about.
+    public synchronized void remove(String redditUrl) {
+        load();
+        if (mIds.remove(redditUrl) != null) {
+            mNotSubmittedAt.remove(redditUrl);
+            // Only the rewrite can drop records, so do it now.
+            rewrite();
+        }
+    }
+
+    public synchronized int size() {
+        load();
+        return mIds.size();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        boolean torn = false;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION) {
+                // Written by some other version, start over.
+                in.close();
+                in = null;
+                mFile.delete();
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            while (true) {
+                final byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                // Read in full before applying, a torn record is dropped whole.
+                final String url = in.readUTF();
+                final String id = type == RECORD_ID ? in.readUTF() : null;
+                final long at = type == RECORD_ID ? 0 : in.readLong();
+                mRecords++;
+                if (type == RECORD_ID) {
+                    mIds.put(url, id);
+                    mNotSubmittedAt.remove(url);
+                } else if (now - at <= NEGATIVE_TTL) {
+                    mIds.put(url, NOT_SUBMITTED);
+                    mNotSubmittedAt.put(url, at);
+                } else {
+                    mIds.remove(url);
+                    mNotSubmittedAt.remove(url);
+                }
+            }
+        } catch (IOException e) {
+            // A torn last record from a crash. Appending after it would
+            //  garble every later record, so the file is rewritten below.
+            Log.w(TAG, "Stopped reading " + mFile, e);
+            torn = true;
+        } finally {
+            closeQuietly(in);
+        }
+        if ((torn || mRecords > 2 * mIds.size() + 16) && !rewrite() && torn) {
+            // Better to start the file over than to append to garbage.
+            mFile.delete();
+        }
+    }
+
+    private void append(byte type, String url, String id, long at) {
+        DataOutputStream out = null;
+        try {
+            final boolean fresh = !mFile.exists() || mFile.length() == 0;
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mFile, true)));
+            if (fresh) {
+                out.writeInt(VERSION);
+            }
+            writeRecord(out, type, url, id, at);
+            mRecords++;
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't append to " + mFile, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // Writes out just the live entries. Returns whether the file was
+    //  replaced.
+    private boolean rewrite() {
+        final File temp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            for (String url : mIds.keySet()) {
+                final String id = mIds.get(url);
+                if (id.equals(NOT_SUBMITTED)) {
+                    writeRecord(out, RECORD_NOT_SUBMITTED, url, null, mNotSubmittedAt.get(url));
+                } else {
+                    writeRecord(out, RECORD_ID, url, id, 0);
+                }
+            }
+            out.close();
+            out = null;
+            if (temp.renameTo(mFile)) {
+                mRecords = mIds.size();
+                return true;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't rewrite " + mFile, e);
+        } finally {
+            closeQuietly(out);
+            temp.delete();
+        }
+        return false;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, String url, String id,
+            long at) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(url);
+        if (type == RECORD_ID) {
+            out.writeUTF(id);
+        } else {
+            out.writeLong(at);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
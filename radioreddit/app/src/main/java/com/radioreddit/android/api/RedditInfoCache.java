@@ -0,0 +1,277 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.util.Log;
+
+import com.radioreddit.android.AllSongInfo;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers what reddit said about recently played songs, keyed by their
+ * reddit_url, so polls during the same song don't ask reddit again. Entries
+ * only live for a short while so scores stay roughly current, and are kept
+ * on disk as well so a restarted service doesn't start cold. Info for
+ * songs coming up next can be stored ahead of time, it lasts until the song
+ * has had a chance to play.
+ *
+ * Votes and saves depend on who is logged in, so the cache must be cleared
+ * on login and logout.
+ */
+public class RedditInfoCache {
+    private static final String TAG = "RedditInfoCache";
+    private static final long TTL = 90000;
+    // Songs fetched ahead of time have to last until they get played.
+    private static final long PREFETCH_TTL = 15 * 60 * 1000;
+    private static final int MAX_ENTRIES = 64;
+
+    private static class CachedInfo {
+        String redditId;
+        int votes;
+        boolean upvoted;
+        boolean downvoted;
+        boolean saved;
+        // Wall clock time so entries loaded from disk can be aged too.
+        long expiresAt;
+        // Fetched ahead for an upcoming song and not played yet.
+        boolean prefetched;
+    }
+
+    private final File mFile;
+    // Least recently used first.
+    private final LinkedHashMap<String, CachedInfo> mEntries =
+            new LinkedHashMap<String, CachedInfo>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedInfo> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean mLoaded = false;
+    private boolean mDirty = false;
+    // Bumped whenever prefetched info is dropped, so a prefetch still in
+    //  flight can tell its results aren't wanted any more.
+    private int mGeneration = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mPrefetchHits = 0;
+
+    public RedditInfoCache(File file) {
+        mFile = file;
+    }
+
+    // Copies cached info into the song if there is a fresh entry for it.
+    public synchronized boolean fill(AllSongInfo song) {
+        load();
+        final CachedInfo entry = song.reddit_url == null ? null : mEntries.get(song.reddit_url);
+        final long now = System.currentTimeMillis();
+        if (entry == null || now > entry.expiresAt) {
+            mMisses++;
+            return false;
+        }
+        mHits++;
+        if (entry.prefetched) {
+            // The song is playing now, from here on keep it as current as
+            //  any other.
+            entry.prefetched = false;
+            entry.expiresAt = Math.min(entry.expiresAt, now + TTL);
+            mPrefetchHits++;
+            mDirty = true;
+        }
+        song.reddit_id = entry.redditId;
+        song.votes = entry.votes;
+        song.upvoted = entry.upvoted;
+        song.downvoted = entry.downvoted;
+        song.saved = entry.saved;
+        return true;
+    }
+
+    // Stores the info reddit just returned for the song.
+    public synchronized void put(AllSongInfo song) {
+        put(song, false);
+    }
+
+    // Stores info fetched ahead for songs coming up on the station, unless
+    //  prefetched info was dropped since the prefetch took the generation.
+    public synchronized boolean putPrefetched(Iterable<AllSongInfo> songs, int generation) {
+        if (generation != mGeneration) {
+            return false;
+        }
+        for (AllSongInfo song : songs) {
+            put(song, true);
+        }
+        return true;
+    }
+
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    // Whether the song has an entry that doesn't need fetching again yet.
+    public synchronized boolean contains(String redditUrl) {
+        load();
+        final CachedInfo entry = mEntries.get(redditUrl);
+        return entry != null && System.currentTimeMillis() <= entry.expiresAt;
+    }
+
+    // Upcoming songs of one station mean nothing on another.
+    public synchronized void dropPrefetched() {
+        mGeneration++;
+        load();
+        final Iterator<CachedInfo> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().prefetched) {
+                iterator.remove();
+                mDirty = true;
+            }
+        }
+    }
+
+    private void put(AllSongInfo song, boolean prefetched) {
+        if (song.reddit_url == null) {
+            return;
+        }
+        load();
+        final CachedInfo entry = new CachedInfo();
+        entry.redditId = song.reddit_id;
+        entry.votes = song.votes;
+        entry.upvoted = song.upvoted;
+        entry.downvoted = song.downvoted;
+        entry.saved = song.saved;
+        entry.prefetched = prefetched;
+        entry.expiresAt = System.currentTimeMillis() + (prefetched ? PREFETCH_TTL : TTL);
+        mEntries.put(song.reddit_url, entry);
+        mDirty = true;
+    }
+
+    // The song was voted on or saved here, so what reddit said is outdated.
+    public synchronized void invalidate(String redditUrl) {
+        if (redditUrl != null && mEntries.remove(redditUrl) != null) {
+            mDirty = true;
+        }
+    }
+
+    public synchronized void clear() {
+        mGeneration++;
+        mEntries.clear();
+        mLoaded = true;
+        mDirty = true;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    // Songs that started playing with their info already fetched ahead.
+    public synchronized int getPrefetchHitCount() {
+        return mPrefetchHits;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final byte[] data = new byte[(int) mFile.length()];
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length
+                        && (read = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+            final JSONArray array = new JSONArray(new String(data, "UTF-8"));
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < array.length(); i++) {
+                final JSONObject object = array.getJSONObject(i);
+                final CachedInfo entry = new CachedInfo();
+                entry.redditId = object.optString("reddit_id", null);
+                entry.votes = object.optInt("votes");
+                entry.upvoted = object.optBoolean("upvoted");
+                entry.downvoted = object.optBoolean("downvoted");
+                entry.saved = object.optBoolean("saved");
+                entry.prefetched = object.optBoolean("prefetched");
+                entry.expiresAt = object.optLong("expires_at");
+                if (now <= entry.expiresAt) {
+                    mEntries.put(object.getString("reddit_url"), entry);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read " + mFile, e);
+        } catch (JSONException e) {
+            Log.w(TAG, "Ignoring corrupt " + mFile, e);
+        }
+    }
+
+    // Writes changes out, call off the main thread where possible.
+    public synchronized void flush() {
+        if (!mDirty) {
+            return;
+        }
+        mDirty = false;
+        try {
+            final JSONArray array = new JSONArray();
+            for (Map.Entry<String, CachedInfo> mapEntry : mEntries.entrySet()) {
+                final CachedInfo entry = mapEntry.getValue();
+                final JSONObject object = new JSONObject();
+                object.put("reddit_url", mapEntry.getKey());
+                object.put("reddit_id", entry.redditId);
+                object.put("votes", entry.votes);
+                object.put("upvoted", entry.upvoted);
+                object.put("downvoted", entry.downvoted);
+                object.put("saved", entry.saved);
+                object.put("prefetched", entry.prefetched);
+                object.put("expires_at", entry.expiresAt);
+                array.put(object);
+            }
+            final FileOutputStream out = new FileOutputStream(mFile);
+            try {
+                out.write(array.toString().getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't write " + mFile, e);
+        } catch (JSONException e) {
+            Log.w(TAG, "Couldn't write " + mFile, e);
+        }
+    }
+}
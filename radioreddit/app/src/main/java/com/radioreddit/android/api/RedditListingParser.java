@@ -0,0 +1,166 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the listing returned by reddit's api/info.json straight off the
+ * stream, keeping only the modhash and the vote state of each post. Posts
+ * carry dozens of fields we never look at, those are skipped without being
+ * turned into objects.
+ */
+public class RedditListingParser {
+    public static class Post {
+        // Kind and id, as used for voting and saving.
+        public String fullname;
+        String id;
+        public int score;
+        // Null when the user hasn't voted.
+        public Boolean likes;
+        public boolean saved;
+    }
+
+    public String modhash;
+    public final List<Post> posts = new ArrayList<>();
+
+    // Parses at most maxPosts posts. Throws IOException when malformed.
+    public static RedditListingParser parse(Reader in, int maxPosts) throws IOException {
+        final JsonReader reader = new JsonReader(in);
+        final RedditListingParser listing = new RedditListingParser();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("data")
+                        && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    listing.parseData(reader, maxPosts);
+                    // Nothing after the listing's data is needed.
+                    break;
+                }
+                reader.skipValue();
+            }
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a value has an unexpected type.
+            throw new IOException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+        return listing;
+    }
+
+    private void parseData(JsonReader reader, int maxPosts) throws IOException {
+        reader.beginObject();
+        boolean haveChildren = false;
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name.equals("modhash")) {
+                modhash = StationStatusParser.nextString(reader);
+            } else if (name.equals("children") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext() && posts.size() < maxPosts) {
+                    final Post post = parseChild(reader);
+                    if (post != null) {
+                        posts.add(post);
+                    }
+                }
+                haveChildren = true;
+                if (modhash != null) {
+                    // Don't bother reading the rest of the children.
+                    return;
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+            if (haveChildren && modhash != null) {
+                return;
+            }
+        }
+    }
+
+    private static Post parseChild(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String kind = null;
+        Post post = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name.equals("kind")) {
+                kind = StationStatusParser.nextString(reader);
+            } else if (name.equals("data") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                post = parsePost(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (post == null) {
+            return null;
+        }
+        if (post.fullname == null && post.id != null && kind != null) {
+            post.fullname = kind + "_" + post.id;
+        }
+        return post.fullname == null ? null : post;
+    }
+
+    private static Post parsePost(JsonReader reader) throws IOException {
+        final Post post = new Post();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "name":
+                post.fullname = StationStatusParser.nextString(reader);
+                break;
+            case "id":
+                post.id = StationStatusParser.nextString(reader);
+                break;
+            case "score":
+                post.score = reader.nextInt();
+                break;
+            case "likes":
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else {
+                    post.likes = reader.nextBoolean();
+                }
+                break;
+            case "saved":
+                post.saved = reader.nextBoolean();
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+        return post;
+    }
+}
@@ -20,8 +20,15 @@ package com.radioreddit.android.api;
 
 public class Relay {
     public String server;
+    // Stream bitrate in kilobits per second.
+    public int bitrate;
 
-    public Relay(String server) {
+    public Relay(String server, int bitrate) {
         this.server = server;
+        this.bitrate = bitrate;
+    }
+
+    public String getUrl() {
+        return "http://" + server;
     }
 }
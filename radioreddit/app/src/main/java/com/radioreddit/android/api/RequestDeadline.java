@@ -0,0 +1,44 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+/**
+ * How long one kind of request may take: to connect, between reads once
+ * connected, and overall from sending the request until the body is read.
+ * The overall limit is enforced by aborting the request.
+ */
+public class RequestDeadline {
+    // Polled regularly, a late answer is soon replaced by the next poll.
+    public static final RequestDeadline STATUS = new RequestDeadline(5000, 10000, 15000);
+    public static final RequestDeadline REDDIT_INFO = new RequestDeadline(5000, 10000, 15000);
+    // Votes and saves happen once and have nothing to retry them.
+    public static final RequestDeadline REDDIT_ACTION = new RequestDeadline(10000, 15000, 30000);
+    // The user is looking at a progress indicator.
+    public static final RequestDeadline LOGIN = new RequestDeadline(10000, 15000, 30000);
+
+    public final int connectMillis;
+    public final int readMillis;
+    public final long totalMillis;
+
+    public RequestDeadline(int connectMillis, int readMillis, long totalMillis) {
+        this.connectMillis = connectMillis;
+        this.readMillis = readMillis;
+        this.totalMillis = totalMillis;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request runs past one of its RequestDeadline limits, so
+ * callers can tell a slow server apart from a failed one.
+ */
+public class RequestTimeoutException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public static final int CONNECT = 0;
+    public static final int READ = 1;
+    public static final int TOTAL = 2;
+
+    private final int mLimit;
+
+    public RequestTimeoutException(int limit, String url) {
+        super(describe(limit) + " timed out for URL " + url);
+        mLimit = limit;
+    }
+
+    // Which limit was hit, one of CONNECT, READ or TOTAL.
+    public int getLimit() {
+        return mLimit;
+    }
+
+    private static String describe(int limit) {
+        switch (limit) {
+        case CONNECT:
+            return "Connect";
+        case READ:
+            return "Read";
+        default:
+            return "Request";
+        }
+    }
+}
@@ -18,6 +18,11 @@
 
 package com.radioreddit.android.api;
 
+import com.radioreddit.android.AllSongInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class StationStatus {
     public String online;
     public String relay;
@@ -25,4 +30,47 @@ public class StationStatus {
     public String all_listeners;
     public String playlist;
     public SongInfoList songs;
+
+    // Copies the info we want to display about the song playing now into a
+    //  new object. Fields the status doesn't have are set to the filler.
+    public AllSongInfo getCurrentSong(String filler) {
+        // XXX: Work-around for the talk stream. I guess it uses episodes instead?
+        SongInfo currentSong;
+        if (songs == null
+                || songs.song == null
+                || songs.song.isEmpty()
+                || songs.song.get(0) == null) {
+            currentSong = new SongInfo();
+            currentSong.title = filler;
+            currentSong.artist = filler;
+            currentSong.genre = filler;
+            currentSong.redditor = filler;
+        } else {
+            currentSong = songs.song.get(0);
+        }
+
+        final AllSongInfo song = new AllSongInfo();
+        song.title = currentSong.title;
+        song.artist = currentSong.artist;
+        song.genre = currentSong.genre;
+        song.redditor = currentSong.redditor;
+        song.playlist = playlist;
+        song.reddit_url = currentSong.reddit_url;
+        return song;
+    }
+
+    // The reddit_urls of up to max songs following the current one.
+    public List<String> getUpcomingRedditUrls(int max) {
+        final List<String> urls = new ArrayList<>();
+        if (songs == null || songs.song == null) {
+            return urls;
+        }
+        for (int i = 1; i < songs.song.size() && urls.size() < max; i++) {
+            final SongInfo song = songs.song.get(i);
+            if (song != null && song.reddit_url != null) {
+                urls.add(song.reddit_url);
+            }
+        }
+        return urls;
+    }
 }
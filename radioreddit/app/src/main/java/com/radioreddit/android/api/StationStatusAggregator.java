@@ -0,0 +1,177 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest status of every station so the tune dialog can show
+ * what is playing everywhere and a station change can show something
+ * straight away. Stale statuses are fetched in parallel on a small thread
+ * pool and handed back on the thread that created the aggregator.
+ */
+public class StationStatusAggregator {
+    private static final String TAG = "StationStatusAggregator";
+    // Statuses older than this are fetched again.
+    private static final long TTL = 60000;
+    private static final int MAX_THREADS = 4;
+
+    public interface Listener {
+        public void onStationStatus(int station, StationStatus status);
+    }
+
+    private final String[] mUrls;
+    private final StationStatus[] mStatuses;
+    private final long[] mFetchedAt;
+    private final boolean[] mFetching;
+    private final Handler mHandler = new Handler();
+    private final ExecutorService mExecutor = new ThreadPoolExecutor(
+            MAX_THREADS, MAX_THREADS, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    private Listener mListener;
+
+    // Takes the status.json URL of each station.
+    public StationStatusAggregator(String[] urls) {
+        mUrls = urls;
+        mStatuses = new StationStatus[urls.length];
+        mFetchedAt = new long[urls.length];
+        mFetching = new boolean[urls.length];
+    }
+
+    // Called with each status as it arrives, null to stop.
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // The station's status if it is recent enough, otherwise null.
+    public StationStatus getCached(int station) {
+        if (mStatuses[station] == null
+                || SystemClock.elapsedRealtime() - mFetchedAt[station] > TTL) {
+            return null;
+        }
+        return mStatuses[station];
+    }
+
+    // Stores a status fetched elsewhere, such as by the regular poll of
+    //  the station being played. May be called from any thread.
+    public void put(String url, final StationStatus status) {
+        for (int i = 0; i < mUrls.length; i++) {
+            if (mUrls[i].equals(url)) {
+                final int station = i;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        store(station, status);
+                    }
+                });
+                return;
+            }
+        }
+    }
+
+    // Marks the station's status as still current after a poll found it
+    //  unchanged. May be called from any thread.
+    public void touch(String url) {
+        for (int i = 0; i < mUrls.length; i++) {
+            if (mUrls[i].equals(url)) {
+                final int station = i;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mStatuses[station] != null) {
+                            mFetchedAt[station] = SystemClock.elapsedRealtime();
+                        }
+                    }
+                });
+                return;
+            }
+        }
+    }
+
+    // Fetches every station whose status is missing or stale. Stations
+    //  with a fresh status are reported to the listener right away.
+    public void refresh() {
+        for (int i = 0; i < mUrls.length; i++) {
+            final StationStatus cached = getCached(i);
+            if (cached != null) {
+                if (mListener != null) {
+                    mListener.onStationStatus(i, cached);
+                }
+            } else if (!mFetching[i]) {
+                mFetching[i] = true;
+                final int station = i;
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final StationStatus status = fetch(mUrls[station]);
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                mFetching[station] = false;
+                                if (status != null) {
+                                    store(station, status);
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        }
+    }
+
+    private void store(int station, StationStatus status) {
+        mStatuses[station] = status;
+        mFetchedAt[station] = SystemClock.elapsedRealtime();
+        if (mListener != null) {
+            mListener.onStationStatus(station, status);
+        }
+    }
+
+    public void shutdown() {
+        mExecutor.shutdownNow();
+        mListener = null;
+    }
+
+    private static StationStatus fetch(String url) {
+        final StreamingResponse response = InternetCommunication.retrieve(url);
+        if (response == null) {
+            return null;
+        }
+        try {
+            // Only the current song is shown.
+            return StationStatusParser.parse(
+                    new InputStreamReader(response.getBody(), "UTF-8"), 1);
+        } catch (IOException e) {
+            Log.w(TAG, "Bad status from " + url, e);
+            response.abort();
+            return null;
+        } finally {
+            response.close();
+        }
+    }
+}
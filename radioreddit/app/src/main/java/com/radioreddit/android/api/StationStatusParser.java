@@ -0,0 +1,128 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * Reads status.json straight off the stream into a StationStatus, keeping
+ * only the fields the app shows and stopping as soon as it has them. No
+ * reflection and no tree of intermediate objects.
+ */
+public class StationStatusParser {
+    // Parses the status with at most maxSongs entries in songs.song, the
+    //  first being the one playing now. Throws IOException when malformed.
+    public static StationStatus parse(Reader in, int maxSongs) throws IOException {
+        final JsonReader reader = new JsonReader(in);
+        final StationStatus status = new StationStatus();
+        try {
+            reader.beginObject();
+            boolean haveSongs = false;
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (name.equals("playlist")) {
+                    status.playlist = nextString(reader);
+                } else if (name.equals("listeners")) {
+                    status.listeners = nextString(reader);
+                } else if (name.equals("songs") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    status.songs = parseSongs(reader, maxSongs);
+                    haveSongs = true;
+                } else {
+                    reader.skipValue();
+                }
+                if (haveSongs && status.playlist != null && status.listeners != null) {
+                    // Whatever follows isn't needed.
+                    break;
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a value has an unexpected type.
+            throw new IOException(e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new IOException(e.getMessage());
+        }
+        return status;
+    }
+
+    private static SongInfoList parseSongs(JsonReader reader, int maxSongs) throws IOException {
+        final SongInfoList list = new SongInfoList();
+        list.song = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("song") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (list.song.size() < maxSongs && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    list.song.add(parseSong(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return list;
+    }
+
+    private static SongInfo parseSong(JsonReader reader) throws IOException {
+        final SongInfo song = new SongInfo();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+            case "title":
+                song.title = nextString(reader);
+                break;
+            case "artist":
+                song.artist = nextString(reader);
+                break;
+            case "genre":
+                song.genre = nextString(reader);
+                break;
+            case "redditor":
+                song.redditor = nextString(reader);
+                break;
+            case "reddit_url":
+                song.reddit_url = nextString(reader);
+                break;
+            default:
+                reader.skipValue();
+                break;
+            }
+        }
+        reader.endObject();
+        return song;
+    }
+
+    // Numbers come back as their text, null as null.
+    static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
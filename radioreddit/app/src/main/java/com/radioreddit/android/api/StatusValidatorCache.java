@@ -0,0 +1,116 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import java.util.HashMap;
+
+/**
+ * Remembers what the last status.json of each station looked like so polls
+ * can tell when nothing changed. Servers that send ETag or Last-Modified are
+ * asked for a 304, others are caught by a checksum of the body taken while
+ * it's parsed. Also keeps a tally of the downloading and parsing this
+ * avoided.
+ */
+public class StatusValidatorCache {
+    private static class Entry {
+        String etag;
+        String lastModified;
+        long checksum;
+        long length;
+        // Thread CPU time spent parsing the body last time round.
+        long parseNanos;
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private final long mCreated = System.currentTimeMillis();
+    private long mNotModified = 0;
+    private long mUnchangedBodies = 0;
+    private long mBytesSaved = 0;
+    private long mCpuNanosSaved = 0;
+
+    public synchronized String getEtag(String url) {
+        final Entry entry = mEntries.get(url);
+        return entry == null ? null : entry.etag;
+    }
+
+    public synchronized String getLastModified(String url) {
+        final Entry entry = mEntries.get(url);
+        return entry == null ? null : entry.lastModified;
+    }
+
+    // Called for a 304, always true since we only send validators we have.
+    public synchronized void onNotModified(String url) {
+        final Entry entry = mEntries.get(url);
+        if (entry != null) {
+            mNotModified++;
+            mBytesSaved += entry.length;
+            mCpuNanosSaved += entry.parseNanos;
+        }
+    }
+
+    // Called with the CRC32 and length of a full body. Returns true if it's
+    //  the same as last time, in which case nothing needs updating.
+    public synchronized boolean isUnchanged(String url, long checksum, long length) {
+        final Entry entry = mEntries.get(url);
+        if (entry == null || entry.length != length || entry.checksum != checksum) {
+            return false;
+        }
+        mUnchangedBodies++;
+        return true;
+    }
+
+    // Stores the validators of a body that was parsed.
+    public synchronized void put(String url, String etag, String lastModified,
+            long checksum, long length, long parseNanos) {
+        final Entry entry = new Entry();
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        entry.checksum = checksum;
+        entry.length = length;
+        entry.parseNanos = parseNanos;
+        mEntries.put(url, entry);
+    }
+
+    // Makes the next poll of the url fetch and parse in full, for when the
+    //  info shown for it has been thrown away.
+    public synchronized void forget(String url) {
+        mEntries.remove(url);
+    }
+
+    public synchronized long getNotModifiedCount() {
+        return mNotModified;
+    }
+
+    public synchronized long getUnchangedBodyCount() {
+        return mUnchangedBodies;
+    }
+
+    public synchronized long getBytesSavedPerHour() {
+        return perHour(mBytesSaved);
+    }
+
+    public synchronized long getCpuMillisSavedPerHour() {
+        return perHour(mCpuNanosSaved / 1000000);
+    }
+
+    private long perHour(long total) {
+        final long elapsed = Math.max(1, System.currentTimeMillis() - mCreated);
+        return total * 3600000 / elapsed;
+    }
+}
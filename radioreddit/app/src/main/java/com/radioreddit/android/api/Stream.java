@@ -18,6 +18,9 @@
 
 package com.radioreddit.android.api;
 
+import java.util.ArrayList;
+import java.util.TreeSet;
+
 public class Stream {
     public String name;
     public String status;
@@ -29,6 +32,31 @@ public class Stream {
         this.relays = relays;
     }
 
+    // Distinct bitrates offered by the relays in ascending order.
+    public int[] getBitrates() {
+        final TreeSet<Integer> bitrates = new TreeSet<>();
+        for (Relay relay : relays) {
+            bitrates.add(relay.bitrate);
+        }
+        final int[] result = new int[bitrates.size()];
+        int i = 0;
+        for (int bitrate : bitrates) {
+            result[i++] = bitrate;
+        }
+        return result;
+    }
+
+    // Relays carrying the given bitrate variant.
+    public Relay[] getRelays(int bitrate) {
+        final ArrayList<Relay> result = new ArrayList<>();
+        for (Relay relay : relays) {
+            if (relay.bitrate == bitrate) {
+                result.add(relay);
+            }
+        }
+        return result.toArray(new Relay[result.size()]);
+    }
+
     @Override
     public String toString() {
         return name;
@@ -0,0 +1,102 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A response whose body is read as it arrives. Its connection goes back to
+ * the pool on close(), which must be called on every path once the response
+ * is no longer needed, typically from a finally block.
+ *
+ * A body that failed to parse can't be trusted to end where it should, so
+ * abort() drops the connection instead of reusing it.
+ */
+public class StreamingResponse implements Closeable {
+    private final HttpUriRequest mRequest;
+    private final HttpResponse mResponse;
+    private InputStream mBody;
+    private boolean mClosed = false;
+
+    StreamingResponse(HttpUriRequest request, HttpResponse response) {
+        mRequest = request;
+        mResponse = response;
+    }
+
+    public int getStatusCode() {
+        return mResponse.getStatusLine().getStatusCode();
+    }
+
+    // The first value of the header, or null when it's missing.
+    public String getHeader(String name) {
+        final Header header = mResponse.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    // The body as it arrives, empty when there isn't one. Closing it is the
+    //  same as closing the response.
+    public InputStream getBody() throws IOException {
+        if (mBody == null) {
+            final HttpEntity entity = mResponse.getEntity();
+            mBody = entity == null ? new ByteArrayInputStream(new byte[0]) : entity.getContent();
+        }
+        return mBody;
+    }
+
+    // Reads what's left of the body so the connection can be reused, or
+    //  drops the connection if that fails. Does nothing the second time.
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        final HttpEntity entity = mResponse.getEntity();
+        if (entity == null) {
+            return;
+        }
+        try {
+            entity.consumeContent();
+        } catch (IOException e) {
+            mRequest.abort();
+        }
+    }
+
+    // Closes the connection without reading any more of the body.
+    public void abort() {
+        mClosed = true;
+        mRequest.abort();
+        if (mBody != null) {
+            // A body served from the cache isn't tied to the request.
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
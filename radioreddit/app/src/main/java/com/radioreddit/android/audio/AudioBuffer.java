@@ -0,0 +1,49 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import java.io.IOException;
+
+/**
+ * Byte queue between the thread reading a relay and the thread serving
+ * MediaPlayer. Implementations differ in what happens when the reader falls
+ * behind: RingBuffer makes the writer wait, TimeShiftBuffer keeps recording
+ * and lets the reader lag.
+ */
+public interface AudioBuffer {
+    public int capacity();
+
+    // Unread bytes.
+    public int available();
+
+    public void write(byte[] data, int offset, int length)
+            throws IOException, InterruptedException;
+
+    // Waits for at least one byte, returns -1 once closed and drained.
+    public int read(byte[] data, int offset, int length) throws InterruptedException;
+
+    // Waits for at least the given number of unread bytes, returns false if
+    //  closed first.
+    public boolean awaitAvailable(int bytes) throws InterruptedException;
+
+    public void clear();
+
+    // Wakes up waiting threads and releases any resources.
+    public void close();
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter. Each failure doubles the delay up to a
+ * cap and the actual delay is picked at random from the upper half so that
+ * many clients losing the same relay don't all come back at once.
+ */
+public class Backoff {
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom = new Random();
+    private int mAttempts = 0;
+
+    public Backoff(long baseDelay, long maxDelay) {
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+    }
+
+    // Milliseconds to wait before the next attempt. Counts as an attempt.
+    public synchronized long nextDelay() {
+        // Stop shifting once the cap is reached so the delay can't overflow.
+        long delay = mBaseDelay;
+        for (int i = 0; i < mAttempts && delay < mMaxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxDelay);
+        mAttempts++;
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+    public synchronized int getAttempts() {
+        return mAttempts;
+    }
+
+    // Called once things work again.
+    public synchronized void reset() {
+        mAttempts = 0;
+    }
+}
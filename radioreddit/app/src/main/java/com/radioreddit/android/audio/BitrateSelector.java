@@ -0,0 +1,117 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+/**
+ * Decides which bitrate variant of a station to play. Starts with the best
+ * variant the measured throughput comfortably carries, steps down after
+ * repeated underruns and steps back up after a sustained stretch of clean
+ * playback with throughput to spare.
+ */
+public class BitrateSelector {
+    // Throughput must exceed a variant's bitrate by this factor to pick it.
+    private static final double HEADROOM = 1.5;
+    // Underruns within one evaluation that count as sustained trouble.
+    private static final int UNDERRUNS_TO_DOWNSWITCH = 2;
+    // Clean evaluations in a row before trying a higher bitrate.
+    private static final int CLEAN_TO_UPSWITCH = 6;
+    // Milliseconds of audio buffered ahead of playback needed before going
+    //  up. Not a fraction of capacity, since buffers range from half a
+    //  minute to a whole time shift window. Twice what the default high
+    //  watermark holds at 128kbps.
+    private static final long BUFFERED_TO_UPSWITCH = 8000;
+
+    private final ThroughputEstimator mEstimator;
+    private int mCleanEvaluations = 0;
+    private int mUpSwitches = 0;
+    private int mDownSwitches = 0;
+
+    public BitrateSelector(ThroughputEstimator estimator) {
+        mEstimator = estimator;
+    }
+
+    // Picks the starting bitrate from the ascending list of variants.
+    public int selectInitial(int[] bitrates) {
+        mCleanEvaluations = 0;
+        if (!mEstimator.hasEstimate()) {
+            // Play it safe with the middle variant until we know more.
+            return bitrates[(bitrates.length - 1) / 2];
+        }
+        int choice = bitrates[0];
+        for (int bitrate : bitrates) {
+            if (bitrate * HEADROOM <= mEstimator.getKbps()) {
+                choice = bitrate;
+            }
+        }
+        return choice;
+    }
+
+    // Called periodically while playing with the number of underruns since
+    //  the previous call and the milliseconds of audio buffered. Returns the
+    //  bitrate to play next, which is the current one unless a switch is
+    //  warranted.
+    public int evaluate(int[] bitrates, int current, int newUnderruns, long bufferedMillis) {
+        final int index = indexOf(bitrates, current);
+        if (index == -1) {
+            return current;
+        }
+
+        if (newUnderruns >= UNDERRUNS_TO_DOWNSWITCH) {
+            mCleanEvaluations = 0;
+            if (index > 0) {
+                mDownSwitches++;
+                return bitrates[index - 1];
+            }
+            return current;
+        }
+
+        if (newUnderruns > 0) {
+            mCleanEvaluations = 0;
+            return current;
+        }
+
+        mCleanEvaluations++;
+        if (mCleanEvaluations >= CLEAN_TO_UPSWITCH
+                && index < bitrates.length - 1
+                && bufferedMillis >= BUFFERED_TO_UPSWITCH
+                && bitrates[index + 1] * HEADROOM <= mEstimator.getKbps()) {
+            mCleanEvaluations = 0;
+            mUpSwitches++;
+            return bitrates[index + 1];
+        }
+        return current;
+    }
+
+    public int getUpSwitchCount() {
+        return mUpSwitches;
+    }
+
+    public int getDownSwitchCount() {
+        return mDownSwitches;
+    }
+
+    private static int indexOf(int[] bitrates, int bitrate) {
+        for (int i = 0; i < bitrates.length; i++) {
+            if (bitrates[i] == bitrate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Strips Shoutcast/Icecast in-band metadata out of an audio stream. After
+ * every metaint bytes of audio the server sends one length byte followed by
+ * length * 16 bytes of text like "StreamTitle='Artist - Title';". Reads
+ * only ever return audio and the listener hears about title changes.
+ */
+public class IcyInputStream extends FilterInputStream {
+    public interface TitleListener {
+        // Called on the reading thread whenever StreamTitle changes.
+        public void onStreamTitle(String title);
+    }
+
+    private static final String TITLE_KEY = "StreamTitle='";
+
+    private final int mMetaInt;
+    private final TitleListener mListener;
+    private final byte[] mMetadata = new byte[255 * 16];
+    // Audio bytes left before the next metadata block.
+    private int mRemaining;
+    private String mTitle = null;
+
+    public IcyInputStream(InputStream in, int metaInt, TitleListener listener) {
+        super(in);
+        if (metaInt <= 0) {
+            throw new IllegalArgumentException("metaint must be positive");
+        }
+        mMetaInt = metaInt;
+        mRemaining = metaInt;
+        mListener = listener;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (mRemaining == 0) {
+            readMetadata();
+            mRemaining = mMetaInt;
+        }
+        final int read = in.read(buffer, offset, Math.min(length, mRemaining));
+        if (read > 0) {
+            mRemaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipping could jump over a metadata block so read through instead.
+        final byte[] scratch = new byte[(int) Math.min(count, 4096)];
+        long skipped = 0;
+        while (skipped < count) {
+            final int read = read(scratch, 0, (int) Math.min(scratch.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(in.available(), mRemaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    private void readMetadata() throws IOException {
+        final int lengthByte = in.read();
+        if (lengthByte == -1) {
+            throw new EOFException("Stream ended before metadata block");
+        }
+        final int length = lengthByte * 16;
+        int filled = 0;
+        while (filled < length) {
+            final int read = in.read(mMetadata, filled, length - filled);
+            if (read == -1) {
+                throw new EOFException("Stream ended inside metadata block");
+            }
+            filled += read;
+        }
+        // Empty blocks mean nothing changed.
+        if (length == 0) {
+            return;
+        }
+        final String title = parseTitle(new String(mMetadata, 0, length, "UTF-8"));
+        if (title != null && !title.equals(mTitle)) {
+            mTitle = title;
+            if (mListener != null) {
+                mListener.onStreamTitle(title);
+            }
+        }
+    }
+
+    // Pulls the value out of StreamTitle='...'; allowing for quotes inside
+    //  the title by looking for the closing "';" pair.
+    static String parseTitle(String metadata) {
+        final int start = metadata.indexOf(TITLE_KEY);
+        if (start == -1) {
+            return null;
+        }
+        final int valueStart = start + TITLE_KEY.length();
+        int end = metadata.indexOf("';", valueStart);
+        if (end == -1) {
+            end = metadata.lastIndexOf('\'');
+            if (end < valueStart) {
+                return null;
+            }
+        }
+        return metadata.substring(valueStart, end).trim();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.SystemClock;
+
+import java.io.IOException;
+
+/**
+ * One MediaPlayer together with the StreamProxy feeding it. Keeping the pair
+ * together lets the service prepare the next station while the current one
+ * is still playing and swap them once the new one is ready.
+ */
+public class PlayerSession {
+    private final RelaySelector mRelaySelector;
+    private final StreamProxy mProxy;
+    private final MediaPlayer mPlayer;
+    private long mRequestTime;
+    private String mProxyUrl;
+    private long mStartTime = 0;
+
+    public PlayerSession(RelaySelector relaySelector,
+            AudioBuffer buffer, int lowWatermark, int highWatermark) {
+        mRelaySelector = relaySelector;
+        mProxy = new StreamProxy(relaySelector, buffer, lowWatermark, highWatermark);
+        mPlayer = new MediaPlayer();
+        mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mRequestTime = SystemClock.elapsedRealtime();
+    }
+
+    // Starts buffering and asks MediaPlayer to prepare. The prepared listener
+    //  fires on the thread that created this session once audio can start,
+    //  the title listener fires on the proxy's fetch thread.
+    public void prepare(MediaPlayer.OnPreparedListener listener,
+            IcyInputStream.TitleListener titleListener) throws IOException {
+        mPlayer.setOnPreparedListener(listener);
+        mProxy.setTitleListener(titleListener);
+        mProxyUrl = mProxy.start();
+        mPlayer.setDataSource(mProxyUrl);
+        mPlayer.prepareAsync();
+    }
+
+    public void pause() {
+        mPlayer.pause();
+    }
+
+    // Restarts MediaPlayer at the given distance behind live. Everything
+    //  comes from the local time-shift buffer so this needs no network. The
+    //  prepared listener fires again once it can start.
+    public boolean seekBehindLive(long millis) throws IOException {
+        if (!mProxy.isTimeShifting()) {
+            return false;
+        }
+        mPlayer.reset();
+        mRequestTime = SystemClock.elapsedRealtime();
+        mStartTime = 0;
+        mProxy.seekBehindLive(millis);
+        mPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
+        mPlayer.setDataSource(mProxyUrl);
+        mPlayer.prepareAsync();
+        return true;
+    }
+
+    public void start() {
+        mPlayer.start();
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    public void setVolume(float volume) {
+        mPlayer.setVolume(volume, volume);
+    }
+
+    public void release() {
+        if (mStartTime != 0) {
+            mPlayer.stop();
+        }
+        mPlayer.release();
+        mProxy.stop();
+    }
+
+    public boolean owns(MediaPlayer player) {
+        return mPlayer == player;
+    }
+
+    public RelaySelector getRelaySelector() {
+        return mRelaySelector;
+    }
+
+    public MediaPlayer getPlayer() {
+        return mPlayer;
+    }
+
+    public StreamProxy getProxy() {
+        return mProxy;
+    }
+
+    // Milliseconds from creating the session until audio started, or -1 if
+    //  it hasn't started yet.
+    public long getTimeToAudio() {
+        return mStartTime == 0 ? -1 : mStartTime - mRequestTime;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import com.radioreddit.android.api.RedditApi;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal HTTP/1.0 client for Icecast/Shoutcast relays. Relays may answer
+ * with an "ICY 200 OK" status line which the platform HTTP stacks refuse, so
+ * the request is written and the response headers parsed by hand.
+ */
+public class RelayConnection {
+    private static final int MAX_REDIRECTS = 5;
+    private static final int DEFAULT_TIMEOUT = 10000;
+
+    private final Map<String, String> mHeaders = new HashMap<>();
+    private volatile Socket mSocket;
+    private InputStream mInput;
+    private int mTimeout = DEFAULT_TIMEOUT;
+    // Milliseconds spent on the final TCP connect and waiting for the status
+    //  line after sending the request.
+    private long mConnectTime = 0;
+    private long mResponseTime = 0;
+    private boolean mRequestMetadata = false;
+
+    // Asks the relay to interleave ICY metadata with the audio. Callers
+    //  must then strip it out, see getMetaInt() and IcyInputStream.
+    public void setRequestMetadata(boolean requestMetadata) {
+        mRequestMetadata = requestMetadata;
+    }
+
+    // Connect and read timeout in milliseconds.
+    public void setTimeout(int timeout) {
+        mTimeout = timeout;
+    }
+
+    public void open(String url) throws IOException {
+        String location = url;
+        for (int redirects = 0; redirects <= MAX_REDIRECTS; redirects++) {
+            final int status = request(new URL(location));
+            if (status >= 300 && status < 400 && getHeader("location") != null) {
+                location = getHeader("location");
+                close();
+                continue;
+            }
+            if (status != 200) {
+                close();
+                throw new IOException("Relay answered " + status + " for " + location);
+            }
+            return;
+        }
+        throw new IOException("Too many redirects for " + url);
+    }
+
+    private int request(URL url) throws IOException {
+        mHeaders.clear();
+        final int port = url.getPort() == -1 ? 80 : url.getPort();
+        final String path = url.getFile().length() == 0 ? "/" : url.getFile();
+
+        final Socket socket = new Socket();
+        mSocket = socket;
+        final long connectStart = System.currentTimeMillis();
+        socket.connect(new InetSocketAddress(url.getHost(), port), mTimeout);
+        socket.setSoTimeout(mTimeout);
+        mConnectTime = System.currentTimeMillis() - connectStart;
+
+        final StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.0\r\n");
+        request.append("Host: ").append(url.getHost()).append("\r\n");
+        request.append("User-Agent: ").append(RedditApi.USER_AGENT).append("\r\n");
+        request.append("Accept: */*\r\n");
+        if (mRequestMetadata) {
+            request.append("Icy-MetaData: 1\r\n");
+        }
+        request.append("Connection: close\r\n\r\n");
+        final OutputStream out = socket.getOutputStream();
+        out.write(request.toString().getBytes("ISO-8859-1"));
+        out.flush();
+
+        final long requestSent = System.currentTimeMillis();
+        mInput = new BufferedInputStream(socket.getInputStream());
+        final String statusLine = readLine(mInput);
+        mResponseTime = System.currentTimeMillis() - requestSent;
+        if (statusLine == null) {
+            throw new IOException("Relay closed connection before responding");
+        }
+        // Accepts both "HTTP/1.x 200 OK" and "ICY 200 OK".
+        final String[] parts = statusLine.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        final int status;
+        try {
+            status = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+
+        String line;
+        while ((line = readLine(mInput)) != null && line.length() > 0) {
+            final int colon = line.indexOf(':');
+            if (colon > 0) {
+                mHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        return status;
+    }
+
+    // Reads a single CRLF (or bare LF) terminated header line.
+    static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                final int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    // Header names are matched case insensitively.
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase(Locale.US));
+    }
+
+    // Audio bytes between metadata blocks, or 0 if the relay isn't sending
+    //  metadata.
+    public int getMetaInt() {
+        final String metaInt = getHeader("icy-metaint");
+        if (metaInt == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(metaInt));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public long getConnectTime() {
+        return mConnectTime;
+    }
+
+    public long getResponseTime() {
+        return mResponseTime;
+    }
+
+    public InputStream getInputStream() {
+        return mInput;
+    }
+
+    // Safe to call from any thread to unblock a pending read.
+    public void close() {
+        final Socket socket = mSocket;
+        mSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import android.util.Log;
+
+import com.radioreddit.android.MusicService;
+import com.radioreddit.android.api.Relay;
+
+import java.io.IOException;
+
+/**
+ * Keeps a health score for every relay of a station and picks the best one
+ * to connect to. Scores come from probes as well as from how real playback
+ * connections fare, so a relay that keeps stalling drifts to the back.
+ */
+public class RelaySelector {
+    private static final String TAG = "RelaySelector";
+
+    // Weight given to the newest latency sample in the moving average.
+    private static final double SMOOTHING = 0.3;
+    // Milliseconds added to the score for each consecutive failure.
+    private static final long FAILURE_PENALTY = 5000;
+    // Score used for relays we know nothing about yet.
+    private static final long UNKNOWN_LATENCY = 1000;
+    private static final int PROBE_TIMEOUT = 3000;
+
+    private final Relay[] mRelays;
+    private final double[] mLatency;
+    private final int[] mFailures;
+    private volatile boolean mProbing = false;
+
+    public RelaySelector(Relay[] relays) {
+        if (relays == null || relays.length == 0) {
+            throw new IllegalArgumentException("A station needs at least one relay");
+        }
+        mRelays = relays;
+        mLatency = new double[relays.length];
+        mFailures = new int[relays.length];
+        for (int i = 0; i < relays.length; i++) {
+            mLatency[i] = UNKNOWN_LATENCY;
+        }
+    }
+
+    public Relay[] getRelays() {
+        return mRelays;
+    }
+
+    // All relays of a selector carry the same bitrate variant.
+    public int getBitrate() {
+        return mRelays[0].bitrate;
+    }
+
+    // Returns the relay with the best score.
+    public synchronized Relay select() {
+        return mRelays[bestIndex(-1)];
+    }
+
+    // Returns the best relay other than the given one, or the given one if it
+    //  is the only relay.
+    public synchronized Relay next(Relay current) {
+        return mRelays[bestIndex(indexOf(current))];
+    }
+
+    private int bestIndex(int exclude) {
+        int best = -1;
+        for (int i = 0; i < mRelays.length; i++) {
+            if (i != exclude && (best == -1 || score(i) < score(best))) {
+                best = i;
+            }
+        }
+        return best == -1 ? exclude : best;
+    }
+
+    // Lower is better. Ties keep the order the relays were listed in.
+    private double score(int index) {
+        return mLatency[index] + mFailures[index] * FAILURE_PENALTY;
+    }
+
+    public synchronized double getScore(Relay relay) {
+        final int index = indexOf(relay);
+        return index == -1 ? Double.MAX_VALUE : score(index);
+    }
+
+    // Records a successful connection along with how long it took to connect
+    //  and to receive the first byte of the response.
+    public synchronized void reportSuccess(Relay relay, long connectTime, long firstByteTime) {
+        final int index = indexOf(relay);
+        if (index != -1) {
+            mLatency[index] = SMOOTHING * (connectTime + firstByteTime)
+                    + (1 - SMOOTHING) * mLatency[index];
+            mFailures[index] = 0;
+        }
+    }
+
+    // Records a failed connection or a stall on an established one.
+    public synchronized void reportFailure(Relay relay) {
+        final int index = indexOf(relay);
+        if (index != -1) {
+            mFailures[index]++;
+        }
+    }
+
+    private int indexOf(Relay relay) {
+        for (int i = 0; i < mRelays.length; i++) {
+            if (mRelays[i] == relay) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Connects to every relay in parallel to measure them. Blocks until all
+    //  probes finish or time out, so don't call it from the main thread.
+    public void probe() {
+        final Thread[] threads = new Thread[mRelays.length];
+        for (int i = 0; i < mRelays.length; i++) {
+            final Relay relay = mRelays[i];
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    probe(relay);
+                }
+            }, TAG + "-probe");
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Probes in the background unless a probe is already running.
+    public void probeAsync() {
+        if (mProbing || mRelays.length < 2) {
+            // Nothing to choose between with a single relay.
+            return;
+        }
+        mProbing = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                probe();
+                mProbing = false;
+            }
+        }, TAG).start();
+    }
+
+    private void probe(Relay relay) {
+        final RelayConnection connection = new RelayConnection();
+        connection.setTimeout(PROBE_TIMEOUT);
+        try {
+            connection.open(relay.getUrl());
+            // Time to first byte counts the first byte of audio, not headers.
+            final long start = System.currentTimeMillis();
+            if (connection.getInputStream().read() == -1) {
+                throw new IOException("Relay closed connection without audio");
+            }
+            final long firstAudio = System.currentTimeMillis() - start;
+            reportSuccess(relay, connection.getConnectTime(),
+                    connection.getResponseTime() + firstAudio);
+            if (MusicService.DEBUG) {
+                Log.d(TAG, relay.server + " scored " + getScore(relay));
+            }
+        } catch (IOException e) {
+            reportFailure(relay);
+            if (MusicService.DEBUG) {
+                Log.d(TAG, "Probe failed for " + relay.server, e);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+/**
+ * Fixed size byte queue shared by exactly one writer thread and one reader
+ * thread. Writes block while the buffer is full and reads block while it is
+ * empty so the network side naturally backs off to the playback rate.
+ */
+public class RingBuffer implements AudioBuffer {
+    private final byte[] mBuffer;
+    // Index of the oldest unread byte and the number of unread bytes.
+    private int mHead = 0;
+    private int mCount = 0;
+    private boolean mClosed = false;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mBuffer = new byte[capacity];
+    }
+
+    @Override
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    @Override
+    public synchronized int available() {
+        return mCount;
+    }
+
+    public synchronized boolean isClosed() {
+        return mClosed;
+    }
+
+    // Copies all of the given bytes in, waiting for the reader to make room
+    //  as needed. Returns early without writing everything if closed.
+    @Override
+    public synchronized void write(byte[] data, int offset, int length)
+            throws InterruptedException {
+        while (length > 0) {
+            while (mCount == mBuffer.length && !mClosed) {
+                wait();
+            }
+            if (mClosed) {
+                return;
+            }
+            final int tail = (mHead + mCount) % mBuffer.length;
+            final int chunk = Math.min(length,
+                    Math.min(mBuffer.length - mCount, mBuffer.length - tail));
+            System.arraycopy(data, offset, mBuffer, tail, chunk);
+            mCount += chunk;
+            offset += chunk;
+            length -= chunk;
+            notifyAll();
+        }
+    }
+
+    // Copies up to length bytes out, waiting until at least one byte is
+    //  available. Returns -1 once the buffer is closed and drained.
+    @Override
+    public synchronized int read(byte[] data, int offset, int length)
+            throws InterruptedException {
+        while (mCount == 0 && !mClosed) {
+            wait();
+        }
+        if (mCount == 0) {
+            return -1;
+        }
+        int copied = 0;
+        while (copied < length && mCount > 0) {
+            final int chunk = Math.min(length - copied,
+                    Math.min(mCount, mBuffer.length - mHead));
+            System.arraycopy(mBuffer, mHead, data, offset + copied, chunk);
+            mHead = (mHead + chunk) % mBuffer.length;
+            mCount -= chunk;
+            copied += chunk;
+        }
+        notifyAll();
+        return copied;
+    }
+
+    // Waits until at least the given number of bytes are buffered. Returns
+    //  false if the buffer was closed before that happened.
+    @Override
+    public synchronized boolean awaitAvailable(int bytes) throws InterruptedException {
+        bytes = Math.min(bytes, mBuffer.length);
+        while (mCount < bytes && !mClosed) {
+            wait();
+        }
+        return mCount >= bytes;
+    }
+
+    // Throws away everything buffered, used when the upstream source changes.
+    @Override
+    public synchronized void clear() {
+        mHead = 0;
+        mCount = 0;
+        notifyAll();
+    }
+
+    // Wakes up any waiting threads. Remaining bytes can still be read.
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+}
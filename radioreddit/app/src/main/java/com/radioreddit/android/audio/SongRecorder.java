@@ -0,0 +1,282 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Tees stream audio into one file per song. The fetch thread only copies
+ * bytes into preallocated blocks, a separate writer thread does all of the
+ * disk work in large sequential writes. If the writer falls behind audio is
+ * dropped from the recording rather than holding up playback.
+ *
+ * Recordings are kept under a byte quota, evicting the least recently
+ * modified files first.
+ */
+public class SongRecorder {
+    private static final String TAG = "SongRecorder";
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Roughly half a minute of 128kbps audio in flight.
+    private static final int BLOCK_COUNT = 8;
+    private static final String EXTENSION = ".mp3";
+
+    private static class Block {
+        final byte[] data = new byte[BLOCK_SIZE];
+        int length;
+        // Song this block starts, null if it continues the previous one.
+        String startsSong;
+        // Set on the block that tells the writer to finish up.
+        boolean last;
+    }
+
+    private final File mDirectory;
+    private final long mQuota;
+    private final ArrayBlockingQueue<Block> mFree = new ArrayBlockingQueue<>(BLOCK_COUNT);
+    private final ArrayBlockingQueue<Block> mFull = new ArrayBlockingQueue<>(BLOCK_COUNT + 1);
+    private final Block mLastBlock = new Block();
+    private Thread mWriterThread;
+
+    // Guarded by this. Only stop() and a handoff between sessions ever
+    //  contend for it.
+    private Block mCurrent;
+    private String mRecordingSong;
+    // The next block handed over has to start a new file.
+    private boolean mStartPending = false;
+    private boolean mStopped = false;
+
+    // Set by startSong() and picked up by the next offer().
+    private volatile String mPendingSong;
+    private volatile long mDroppedBytes = 0;
+
+    // Only touched by the writer thread.
+    private FileOutputStream mOutput;
+    private File mOutputFile;
+    private long mUsedBytes;
+
+    public SongRecorder(File directory, long quota) {
+        mDirectory = directory;
+        mQuota = quota;
+        for (int i = 0; i < BLOCK_COUNT; i++) {
+            mFree.add(new Block());
+        }
+        mLastBlock.last = true;
+    }
+
+    public void start() {
+        mDirectory.mkdirs();
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, TAG);
+        mWriterThread.start();
+    }
+
+    // Flushes what has been offered so far and stops the writer thread. Later
+    //  offers are ignored.
+    public void stop() {
+        if (mWriterThread == null) {
+            return;
+        }
+        mPendingSong = null;
+        synchronized (this) {
+            mStopped = true;
+            // The partly filled block is the end of the current song.
+            handOff();
+        }
+        try {
+            mFull.put(mLastBlock);
+        } catch (InterruptedException e) {
+            mWriterThread.interrupt();
+        }
+        mWriterThread = null;
+    }
+
+    // Starts a new file at the next offered byte. A null song suspends
+    //  recording until a known song comes along.
+    public void startSong(String song) {
+        mPendingSong = song;
+    }
+
+    // Bytes skipped because the writer couldn't keep up.
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    // Called on the fetch thread for every chunk of audio. Never allocates
+    //  and only waits on stop().
+    public synchronized void offer(byte[] data, int offset, int length) {
+        if (mStopped) {
+            return;
+        }
+        final String pending = mPendingSong;
+        if (pending == null ? mRecordingSong != null : !pending.equals(mRecordingSong)) {
+            handOff();
+            mRecordingSong = pending;
+            mStartPending = pending != null;
+        }
+        if (mRecordingSong == null) {
+            return;
+        }
+
+        while (length > 0) {
+            if (mCurrent == null) {
+                mCurrent = mFree.poll();
+                if (mCurrent == null) {
+                    mDroppedBytes += length;
+                    return;
+                }
+                if (mStartPending) {
+                    mCurrent.startsSong = mRecordingSong;
+                    mStartPending = false;
+                }
+            }
+            final int chunk = Math.min(length, BLOCK_SIZE - mCurrent.length);
+            System.arraycopy(data, offset, mCurrent.data, mCurrent.length, chunk);
+            mCurrent.length += chunk;
+            offset += chunk;
+            length -= chunk;
+            if (mCurrent.length == BLOCK_SIZE) {
+                handOff();
+            }
+        }
+    }
+
+    private void handOff() {
+        if (mCurrent != null) {
+            if (mCurrent.length > 0 || mCurrent.startsSong != null) {
+                // There's always room since full plus free never exceeds BLOCK_COUNT.
+                mFull.offer(mCurrent);
+            } else {
+                mFree.offer(mCurrent);
+            }
+            mCurrent = null;
+        }
+    }
+
+    private void writeLoop() {
+        mUsedBytes = directorySize();
+        try {
+            while (true) {
+                final Block block = mFull.take();
+                if (block.last) {
+                    break;
+                }
+                try {
+                    write(block);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed writing recording", e);
+                    closeOutput();
+                } finally {
+                    block.length = 0;
+                    block.startsSong = null;
+                    mFree.offer(block);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Finish up below.
+        }
+        closeOutput();
+    }
+
+    private void write(Block block) throws IOException {
+        if (block.startsSong != null) {
+            closeOutput();
+            mOutputFile = uniqueFile(block.startsSong);
+            mOutput = new FileOutputStream(mOutputFile);
+        }
+        if (mOutput == null || block.length == 0) {
+            return;
+        }
+        enforceQuota(block.length);
+        mOutput.write(block.data, 0, block.length);
+        mUsedBytes += block.length;
+    }
+
+    private void closeOutput() {
+        if (mOutput != null) {
+            try {
+                mOutput.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+            mOutput = null;
+            mOutputFile = null;
+        }
+    }
+
+    // Evicts least recently modified recordings until the incoming bytes fit.
+    private void enforceQuota(int incoming) {
+        if (mUsedBytes + incoming <= mQuota) {
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mUsedBytes + incoming <= mQuota) {
+                break;
+            }
+            if (file.equals(mOutputFile) || !file.getName().endsWith(EXTENSION)) {
+                continue;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                mUsedBytes -= length;
+            }
+        }
+    }
+
+    private long directorySize() {
+        long size = 0;
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private File uniqueFile(String song) {
+        final String name = song.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        File file = new File(mDirectory, name + EXTENSION);
+        for (int i = 2; file.exists(); i++) {
+            file = new File(mDirectory, name + " (" + i + ")" + EXTENSION);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+/**
+ * Notices when audio stops coming out even though the service thinks it is
+ * playing. It is fed periodic readings of the bytes fetched from the relay
+ * and the player's position. When the position stops moving for too long
+ * the stream is restarted, backing off exponentially while it stays silent.
+ *
+ * Time is passed in by the caller so the decisions don't depend on a clock.
+ */
+public class StallWatchdog {
+    // Longer than the proxy's own stall timeout so that a simple relay
+    //  failover gets a chance to fix things first.
+    public static final long DEFAULT_STALL_TIMEOUT = 8000;
+    private static final long RESTART_BASE_DELAY = 2000;
+    private static final long RESTART_MAX_DELAY = 60000;
+
+    public interface Callback {
+        // Playback has been silent for too long, restart the stream.
+        public void onStalled();
+
+        // Playback is moving again after the given time in silence.
+        public void onRecovered(long silentMillis);
+    }
+
+    private final long mStallTimeout;
+    private final Callback mCallback;
+    private final Backoff mBackoff = new Backoff(RESTART_BASE_DELAY, RESTART_MAX_DELAY);
+
+    private boolean mStarted = false;
+    private long mLastBytes;
+    private long mLastPosition;
+    private long mLastCheck;
+    private long mLastProgress;
+    private long mSilentSince = -1;
+    private long mNextRestart;
+
+    private double mByteRate = 0;
+    private int mStalls = 0;
+    private int mRestarts = 0;
+    private int mRecoveries = 0;
+    private long mSilentMillis = 0;
+
+    public StallWatchdog(long stallTimeout, Callback callback) {
+        mStallTimeout = stallTimeout;
+        mCallback = callback;
+    }
+
+    // Takes a reading while the player should be audible. Any change in
+    //  position counts as progress, including the jump back to zero when a
+    //  restarted player takes over.
+    public void check(long now, long bytesFetched, long position) {
+        if (!mStarted) {
+            mStarted = true;
+            mLastBytes = bytesFetched;
+            mLastPosition = position;
+            mLastCheck = now;
+            mLastProgress = now;
+            return;
+        }
+
+        if (now > mLastCheck) {
+            // A restarted session counts its bytes from zero again.
+            mByteRate = Math.max(0, bytesFetched - mLastBytes) * 1000.0 / (now - mLastCheck);
+        }
+        mLastBytes = bytesFetched;
+        mLastCheck = now;
+
+        if (position != mLastPosition) {
+            mLastPosition = position;
+            mLastProgress = now;
+            if (mSilentSince != -1) {
+                final long silent = now - mSilentSince;
+                mSilentMillis += silent;
+                mSilentSince = -1;
+                mRecoveries++;
+                mBackoff.reset();
+                mCallback.onRecovered(silent);
+            }
+            return;
+        }
+
+        if (mSilentSince == -1) {
+            if (now - mLastProgress < mStallTimeout) {
+                return;
+            }
+            mSilentSince = mLastProgress;
+            mStalls++;
+            mNextRestart = now;
+        }
+        if (now >= mNextRestart) {
+            mRestarts++;
+            mNextRestart = now + mBackoff.nextDelay();
+            mCallback.onStalled();
+        }
+    }
+
+    // Forgets the readings, for when playback is paused or stopped on
+    //  purpose. Silence so far still counts towards the total.
+    public void reset(long now) {
+        if (mSilentSince != -1) {
+            mSilentMillis += now - mSilentSince;
+            mSilentSince = -1;
+        }
+        mStarted = false;
+        mByteRate = 0;
+        mBackoff.reset();
+    }
+
+    public boolean isSilent() {
+        return mSilentSince != -1;
+    }
+
+    // Bytes per second arriving from the relay between the last two readings.
+    public double getByteRate() {
+        return mByteRate;
+    }
+
+    public int getStallCount() {
+        return mStalls;
+    }
+
+    public int getRestartCount() {
+        return mRestarts;
+    }
+
+    public int getRecoveryCount() {
+        return mRecoveries;
+    }
+
+    // Total milliseconds spent silent while meant to be playing, including
+    //  the current silence if there is one.
+    public long getSilentMillis(long now) {
+        return mSilentMillis + (mSilentSince == -1 ? 0 : now - mSilentSince);
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.radioreddit.android.MusicService;
+import com.radioreddit.android.api.Relay;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Loopback HTTP server that sits between MediaPlayer and a relay. One thread
+ * pulls the relay into a RingBuffer, failing over to another relay of the
+ * station when the current one drops or stalls, while another serves the
+ * buffer to MediaPlayer. Short network hiccups are absorbed by the buffer
+ * instead of forcing MediaPlayer to re-prepare.
+ */
+public class StreamProxy {
+    private static final String TAG = "StreamProxy";
+
+    // At 128kbps one second of audio is 16KiB.
+    public static final int DEFAULT_BUFFER_SIZE = 512 * 1024;
+    public static final int DEFAULT_HIGH_WATERMARK = 64 * 1024;
+    public static final int DEFAULT_LOW_WATERMARK = 32 * 1024;
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+    // Reconnect delays once every relay has failed in a row.
+    private static final long RETRY_BASE_DELAY = 1000;
+    private static final long RETRY_MAX_DELAY = 30000;
+    // A relay that sends nothing for this long is treated as stalled.
+    private static final int STALL_TIMEOUT = 5000;
+    private static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+
+    private final RelaySelector mRelaySelector;
+    private volatile Relay mRelay;
+    private final AudioBuffer mBuffer;
+    // Bytes to buffer before serving the first byte to MediaPlayer.
+    private volatile int mHighWatermark;
+    // Bytes to buffer before serving again after the buffer ran dry.
+    private volatile int mLowWatermark;
+
+    private volatile boolean mRunning = false;
+    private ServerSocket mServerSocket;
+    private Thread mFetchThread;
+    private Thread mServeThread;
+    private volatile RelayConnection mConnection;
+    private volatile Socket mClient;
+    private volatile String mContentType = DEFAULT_CONTENT_TYPE;
+    private volatile IcyInputStream.TitleListener mTitleListener;
+    private volatile boolean mHasMetadata = false;
+    private volatile ThroughputEstimator mThroughputEstimator;
+    private volatile SongRecorder mRecorder;
+
+    private volatile int mUnderruns = 0;
+    private volatile int mReconnects = 0;
+    private volatile int mFailovers = 0;
+    private final Backoff mBackoff = new Backoff(RETRY_BASE_DELAY, RETRY_MAX_DELAY);
+    // Relay failures since audio last arrived, only used by the fetch thread.
+    private int mConsecutiveFailures = 0;
+    // Wakes the fetch thread early from a backoff delay.
+    private final Object mRetryLock = new Object();
+    // Start of a network handoff being bridged, or -1 when there isn't one.
+    private volatile long mHandoffStart = -1;
+    // The device has no network, so failing relays aren't to blame.
+    private volatile boolean mOffline = false;
+    private volatile int mHandoffs = 0;
+    private volatile long mLastHandoffGap = -1;
+    private volatile long mBytesFetched = 0;
+    private volatile long mBytesServed = 0;
+
+    public StreamProxy(RelaySelector relaySelector) {
+        this(relaySelector, new RingBuffer(DEFAULT_BUFFER_SIZE),
+                DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+    }
+
+    public StreamProxy(RelaySelector relaySelector,
+            AudioBuffer buffer, int lowWatermark, int highWatermark) {
+        mRelaySelector = relaySelector;
+        mRelay = relaySelector.select();
+        mBuffer = buffer;
+        setWatermarks(lowWatermark, highWatermark);
+    }
+
+    // Requests in-band ICY metadata from the relay and reports StreamTitle
+    //  changes on the fetch thread. Must be set before start().
+    public void setTitleListener(IcyInputStream.TitleListener listener) {
+        mTitleListener = listener;
+    }
+
+    // Fed with the timing of every relay read, may be shared across proxies.
+    public void setThroughputEstimator(ThroughputEstimator estimator) {
+        mThroughputEstimator = estimator;
+    }
+
+    // Gets a copy of every chunk of audio as it arrives, null to stop.
+    public void setRecorder(SongRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    // Whether the current relay connection carries in-band metadata.
+    public boolean hasMetadata() {
+        return mHasMetadata;
+    }
+
+    public void setWatermarks(int lowWatermark, int highWatermark) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark
+                || highWatermark > mBuffer.capacity()) {
+            throw new IllegalArgumentException("Watermarks must satisfy"
+                    + " 0 <= low <= high <= buffer size");
+        }
+        mLowWatermark = lowWatermark;
+        mHighWatermark = highWatermark;
+    }
+
+    // Starts fetching and listening. Returns the URL to hand to MediaPlayer.
+    public String start() throws IOException {
+        mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        mRunning = true;
+
+        mFetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fetch();
+            }
+        }, TAG + "-fetch");
+        mServeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, TAG + "-serve");
+        mFetchThread.start();
+        mServeThread.start();
+
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/stream";
+    }
+
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mBuffer.close();
+        final RelayConnection connection = mConnection;
+        if (connection != null) {
+            connection.close();
+        }
+        closeQuietly(mClient);
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // Nothing more to do.
+        }
+        mFetchThread.interrupt();
+        mServeThread.interrupt();
+    }
+
+    // The device lost its network. Relays that fail from now until
+    //  reconnect() aren't held against them.
+    public void onNetworkLost() {
+        mOffline = true;
+    }
+
+    // The device moved to another network. Drops the relay connection, which
+    //  is tied to the old network, and opens a new one straight away without
+    //  holding it against the relay. MediaPlayer carries on from the buffer
+    //  meanwhile. Pass when the old network was lost, or now if unknown.
+    public void reconnect(long networkLostAt) {
+        if (!mRunning) {
+            return;
+        }
+        if (mHandoffStart == -1) {
+            mHandoffStart = networkLostAt;
+        }
+        mOffline = false;
+        mBackoff.reset();
+        final RelayConnection connection = mConnection;
+        if (connection != null) {
+            connection.close();
+        }
+        synchronized (mRetryLock) {
+            mRetryLock.notifyAll();
+        }
+    }
+
+    public int getHandoffCount() {
+        return mHandoffs;
+    }
+
+    // Milliseconds from losing the old network until audio arrived on the
+    //  new one for the most recent handoff, or -1 if there hasn't been one.
+    public long getLastHandoffGap() {
+        return mLastHandoffGap;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    // The relay currently being read, or about to be connected to.
+    public Relay getRelay() {
+        return mRelay;
+    }
+
+    public int getBufferSize() {
+        return mBuffer.capacity();
+    }
+
+    public int getBufferedBytes() {
+        return mBuffer.available();
+    }
+
+    public boolean isTimeShifting() {
+        return mBuffer instanceof TimeShiftBuffer;
+    }
+
+    // Moves playback to the given number of milliseconds behind the live
+    //  edge, clamped to what has been recorded, and drops the current client
+    //  so MediaPlayer reconnects and reads from there. Only possible when
+    //  backed by a TimeShiftBuffer.
+    public boolean seekBehindLive(long millis) {
+        if (!isTimeShifting()) {
+            return false;
+        }
+        final TimeShiftBuffer buffer = (TimeShiftBuffer) mBuffer;
+        buffer.seek(buffer.getLivePosition() - millisToBytes(millis));
+        closeQuietly(mClient);
+        return true;
+    }
+
+    // Milliseconds of audio recorded and available to seek back into.
+    public long getTimeShiftWindow() {
+        if (!isTimeShifting()) {
+            return 0;
+        }
+        final TimeShiftBuffer buffer = (TimeShiftBuffer) mBuffer;
+        return bytesToMillis(buffer.getLivePosition() - buffer.getOldestPosition());
+    }
+
+    // Milliseconds between what is being served and the live edge.
+    public long getDelayBehindLive() {
+        return bytesToMillis(mBuffer.available());
+    }
+
+    // Kilobits per second are conveniently bytes per 8 milliseconds.
+    private long millisToBytes(long millis) {
+        return millis * mRelay.bitrate / 8;
+    }
+
+    private long bytesToMillis(long bytes) {
+        return bytes * 8 / mRelay.bitrate;
+    }
+
+    public int getLowWatermark() {
+        return mLowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return mHighWatermark;
+    }
+
+    // Number of times MediaPlayer drained the buffer and had to wait for a refill.
+    public int getUnderrunCount() {
+        return mUnderruns;
+    }
+
+    public int getReconnectCount() {
+        return mReconnects;
+    }
+
+    // Number of reconnects that moved to a different relay.
+    public int getFailoverCount() {
+        return mFailovers;
+    }
+
+    public long getBytesFetched() {
+        return mBytesFetched;
+    }
+
+    public long getBytesServed() {
+        return mBytesServed;
+    }
+
+    private void fetch() {
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        while (mRunning) {
+            final Relay relay = mRelay;
+            final RelayConnection connection = new RelayConnection();
+            connection.setTimeout(STALL_TIMEOUT);
+            connection.setRequestMetadata(mTitleListener != null);
+            mConnection = connection;
+            try {
+                connection.open(relay.getUrl());
+                final String contentType = connection.getHeader("content-type");
+                if (contentType != null) {
+                    mContentType = contentType;
+                }
+                // MediaPlayer must never see the metadata blocks.
+                final int metaInt = connection.getMetaInt();
+                mHasMetadata = metaInt > 0;
+                final InputStream in = mHasMetadata
+                        ? new IcyInputStream(connection.getInputStream(), metaInt, mTitleListener)
+                        : connection.getInputStream();
+                int read = in.read(chunk);
+                if (read != -1) {
+                    mOffline = false;
+                    // Only a relay that actually sends audio counts as up.
+                    mRelaySelector.reportSuccess(relay,
+                            connection.getConnectTime(), connection.getResponseTime());
+                    mConsecutiveFailures = 0;
+                    mBackoff.reset();
+                    final long handoffStart = mHandoffStart;
+                    if (handoffStart != -1) {
+                        mLastHandoffGap = SystemClock.elapsedRealtime() - handoffStart;
+                        mHandoffs++;
+                        mHandoffStart = -1;
+                        if (MusicService.DEBUG) {
+                            Log.d(TAG, "Network handoff took " + mLastHandoffGap + "ms");
+                        }
+                    }
+                }
+                final ThroughputEstimator estimator = mThroughputEstimator;
+                while (mRunning && read != -1) {
+                    final SongRecorder recorder = mRecorder;
+                    if (recorder != null) {
+                        recorder.offer(chunk, 0, read);
+                    }
+                    mBuffer.write(chunk, 0, read);
+                    mBytesFetched += read;
+                    final long readStart = System.nanoTime();
+                    read = in.read(chunk);
+                    if (estimator != null && read > 0) {
+                        estimator.addSample(read, System.nanoTime() - readStart);
+                    }
+                }
+            } catch (IOException e) {
+                if (mRunning && mHandoffStart == -1) {
+                    Log.w(TAG, "Relay connection failed for " + relay.server, e);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                connection.close();
+                mConnection = null;
+            }
+
+            if (!mRunning) {
+                break;
+            }
+            if (mHandoffStart != -1 && mConsecutiveFailures == 0) {
+                // Dropped on purpose for a network change, the relay is fine.
+                mReconnects++;
+                mConsecutiveFailures++;
+                continue;
+            }
+            if (mOffline) {
+                // Stay on this relay and wait for reconnect(), retrying now
+                //  and then in case the network comes back unannounced.
+                mReconnects++;
+                final long delay = mBackoff.nextDelay();
+                try {
+                    synchronized (mRetryLock) {
+                        if (mOffline) {
+                            mRetryLock.wait(delay);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+                continue;
+            }
+            // Ended streams and stalls both count against the relay. Move on
+            //  to the next best relay straight away and only back off once
+            //  every relay has had a go.
+            mReconnects++;
+            mConsecutiveFailures++;
+            mRelaySelector.reportFailure(relay);
+            mRelay = mRelaySelector.next(relay);
+            if (mRelay != relay) {
+                mFailovers++;
+                if (MusicService.DEBUG) {
+                    Log.d(TAG, "Failing over from " + relay.server + " to " + mRelay.server);
+                }
+            }
+            if (mConsecutiveFailures >= mRelaySelector.getRelays().length) {
+                final long delay = mBackoff.nextDelay();
+                if (MusicService.DEBUG) {
+                    Log.d(TAG, "Retrying in " + delay + "ms");
+                }
+                try {
+                    synchronized (mRetryLock) {
+                        mRetryLock.wait(delay);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void serve() {
+        while (mRunning) {
+            Socket client = null;
+            try {
+                client = mServerSocket.accept();
+                mClient = client;
+                serveClient(client);
+            } catch (IOException e) {
+                // MediaPlayer hung up or we were stopped. Either way wait for
+                //  the next connection if still running.
+                if (MusicService.DEBUG && mRunning) {
+                    Log.d(TAG, "Client connection ended", e);
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                closeQuietly(client);
+                mClient = null;
+            }
+        }
+    }
+
+    private void serveClient(Socket client) throws IOException, InterruptedException {
+        // Consume the request, we serve the same stream for any path.
+        final InputStream in = client.getInputStream();
+        String line;
+        while ((line = RelayConnection.readLine(in)) != null && line.length() > 0) {
+            if (MusicService.DEBUG) {
+                Log.d(TAG, "Request: " + line);
+            }
+        }
+
+        // Prefill before answering so MediaPlayer starts with a full cushion.
+        if (!mBuffer.awaitAvailable(mHighWatermark)) {
+            return;
+        }
+
+        final OutputStream out = client.getOutputStream();
+        out.write(("HTTP/1.0 200 OK\r\n"
+                + "Content-Type: " + mContentType + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes("ISO-8859-1"));
+
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        while (mRunning) {
+            if (mBuffer.available() == 0) {
+                mUnderruns++;
+                if (MusicService.DEBUG) {
+                    Log.d(TAG, "Buffer underrun #" + mUnderruns);
+                }
+                if (!mBuffer.awaitAvailable(mLowWatermark)) {
+                    return;
+                }
+            }
+            final int read = mBuffer.read(chunk, 0, chunk.length);
+            if (read == -1) {
+                return;
+            }
+            out.write(chunk, 0, read);
+            mBytesServed += read;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+/**
+ * Moving average of network throughput measured from individual socket
+ * reads. A live relay only sends in real time once its connect burst is
+ * over, so small reads that merely waited for the next packet are ignored
+ * and only reads big enough to show how fast the link drains are counted.
+ */
+public class ThroughputEstimator {
+    // Reads smaller than this say more about the relay's pacing than the link.
+    private static final int MIN_SAMPLE_BYTES = 4 * 1024;
+    // Reads faster than this can't be timed meaningfully.
+    private static final long MIN_SAMPLE_NANOS = 1000000;
+    private static final double SMOOTHING = 0.2;
+
+    private double mKbps = 0;
+    private int mSamples = 0;
+
+    public synchronized void addSample(int bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos < MIN_SAMPLE_NANOS) {
+            return;
+        }
+        final double kbps = bytes * 8.0 * 1000000.0 / nanos;
+        mKbps = mSamples == 0 ? kbps : SMOOTHING * kbps + (1 - SMOOTHING) * mKbps;
+        mSamples++;
+    }
+
+    // Estimated throughput in kilobits per second, or 0 without samples.
+    public synchronized int getKbps() {
+        return (int) mKbps;
+    }
+
+    public synchronized boolean hasEstimate() {
+        return mSamples > 0;
+    }
+}
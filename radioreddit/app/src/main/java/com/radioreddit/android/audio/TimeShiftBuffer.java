@@ -0,0 +1,192 @@
+/*
+ * This file is part of radio reddit for Android.
+ *
+ * radio reddit for Android is free software: you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * radio reddit for Android is distributed in the hope that it will be
+ * useful, but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with radio reddit for Android.
+ * If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.radioreddit.android.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps the last few minutes of a live stream in a fixed size memory mapped
+ * file. Unlike RingBuffer the writer never waits: once the file is full the
+ * oldest audio is overwritten, so recording carries on while playback is
+ * paused and the reader can be moved anywhere inside the window.
+ *
+ * Positions are absolute byte counts since recording started, the byte at
+ * position p lives at p % capacity in the file.
+ */
+public class TimeShiftBuffer implements AudioBuffer {
+    // Files are only ever created by this class so leftovers from a crash
+    //  can be recognised and removed.
+    public static final String FILE_PREFIX = "timeshift";
+
+    private final File mDirectory;
+    private final int mCapacity;
+    private File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mMap;
+
+    private long mWritten = 0;
+    private long mReadPosition = 0;
+    private boolean mClosed = false;
+
+    // The backing file is created lazily by the first write so that disk
+    //  work happens on the writing thread rather than the caller's.
+    public TimeShiftBuffer(File directory, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mDirectory = directory;
+        mCapacity = capacity;
+    }
+
+    // Removes backing files left behind by a previous process.
+    public static void deleteStaleFiles(File directory) {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(FILE_PREFIX)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        mFile = File.createTempFile(FILE_PREFIX, ".buf", mDirectory);
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mRandomAccessFile.setLength(mCapacity);
+        mMap = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mCapacity);
+    }
+
+    @Override
+    public int capacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) (mWritten - mReadPosition);
+    }
+
+    // Never waits. A reader that gets lapped is moved up to the oldest audio
+    //  still in the window.
+    @Override
+    public synchronized void write(byte[] data, int offset, int length) throws IOException {
+        if (mClosed) {
+            return;
+        }
+        if (mMap == null) {
+            open();
+        }
+        while (length > 0) {
+            final int position = (int) (mWritten % mCapacity);
+            final int chunk = Math.min(length, mCapacity - position);
+            mMap.position(position);
+            mMap.put(data, offset, chunk);
+            mWritten += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+        if (mReadPosition < getOldestPosition()) {
+            mReadPosition = getOldestPosition();
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int read(byte[] data, int offset, int length)
+            throws InterruptedException {
+        while (mReadPosition == mWritten && !mClosed) {
+            wait();
+        }
+        if (mReadPosition == mWritten) {
+            return -1;
+        }
+        int copied = 0;
+        while (copied < length && mReadPosition < mWritten) {
+            final int position = (int) (mReadPosition % mCapacity);
+            final int chunk = (int) Math.min(length - copied,
+                    Math.min(mWritten - mReadPosition, mCapacity - position));
+            mMap.position(position);
+            mMap.get(data, offset + copied, chunk);
+            mReadPosition += chunk;
+            copied += chunk;
+        }
+        return copied;
+    }
+
+    @Override
+    public synchronized boolean awaitAvailable(int bytes) throws InterruptedException {
+        bytes = Math.min(bytes, mCapacity);
+        while (mWritten - mReadPosition < bytes && !mClosed) {
+            wait();
+        }
+        return mWritten - mReadPosition >= bytes;
+    }
+
+    // Jumps the reader to the live edge.
+    @Override
+    public synchronized void clear() {
+        mReadPosition = mWritten;
+        notifyAll();
+    }
+
+    // Closes and deletes the backing file, nothing can be read afterwards.
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        mReadPosition = mWritten;
+        notifyAll();
+        mMap = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                // Nothing more to do.
+            }
+            mRandomAccessFile = null;
+        }
+        if (mFile != null) {
+            mFile.delete();
+            mFile = null;
+        }
+    }
+
+    public synchronized long getOldestPosition() {
+        return Math.max(0, mWritten - mCapacity);
+    }
+
+    public synchronized long getLivePosition() {
+        return mWritten;
+    }
+
+    public synchronized long getReadPosition() {
+        return mReadPosition;
+    }
+
+    // Moves the reader, clamped to the recorded window.
+    public synchronized void seek(long position) {
+        mReadPosition = Math.max(getOldestPosition(), Math.min(mWritten, position));
+        notifyAll();
+    }
+}